@@ -0,0 +1,239 @@
+package io.goobi.dlc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.core.config.Configurator;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the stages of the fix pipeline separately and end-to-end on the
+ * fixtures in src/test/resources. Every fixture is copied to a temporary
+ * directory first, so the benchmark never changes the test data.
+ *
+ * <p>
+ * Run from the project directory with
+ * {@code mvn -Pjmh test-compile exec:exec}, which reports ops/s together with
+ * the allocation rate of the GC profiler.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FixPipelineBenchmark {
+
+	/**
+	 * The fixture, relative to src/test/resources. 1402 is large and clean, the
+	 * unfixed files of 185447 and 183112 are the originals with duplicates.
+	 */
+	@Param({ "1402/meta.xml", "877/meta.xml", "185447/meta.xml.unfixed", "183112/meta.xml.unfixed" })
+	public String fixture;
+
+	private FixForXmlFiles fixer;
+	private Path tempDirectory;
+	private Path originalFile;
+	private File workFile;
+	private Document document;
+	private List<String> hrefs;
+
+	/**
+	 * Copies the fixture and parses it once for the stages that work on a parsed
+	 * document.
+	 *
+	 * @throws IOException If the fixture cannot be copied.
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		// Per file logging would dominate the measurement
+		Configurator.setRootLevel(org.apache.logging.log4j.Level.WARN);
+		fixer = new FixForXmlFiles();
+		tempDirectory = Files.createTempDirectory("fix-benchmark");
+		originalFile = Files.copy(Paths.get(System.getProperty("fixtures", "src/test/resources"), fixture),
+				tempDirectory.resolve("original.xml"));
+		Path processDirectory = Files.createDirectory(tempDirectory.resolve("process"));
+		workFile = processDirectory.resolve("meta.xml").toFile();
+		Files.copy(originalFile, workFile.toPath());
+		document = fixer.processXmlFile(originalFile.toFile()).getDocument();
+		hrefs = fixer.collectXmlElements(document.getRootElement());
+	}
+
+	/**
+	 * Deletes the temporary directory.
+	 *
+	 * @throws IOException If the directory cannot be deleted.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		try (Stream<Path> paths = Files.walk(tempDirectory)) {
+			paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+	/**
+	 * Parsing the file into a DOM.
+	 *
+	 * @return The root element.
+	 */
+	@Benchmark
+	public Element processXmlFile() {
+		return fixer.processXmlFile(originalFile.toFile());
+	}
+
+	/**
+	 * Collecting the href values of the parsed document.
+	 *
+	 * @return The href values.
+	 */
+	@Benchmark
+	public List<String> collectXmlElements() {
+		return fixer.collectXmlElements(document.getRootElement());
+	}
+
+	/**
+	 * Finding the duplicates and planning their removal, which is the part of
+	 * findDuplicates that does not write any files.
+	 *
+	 * @return The plan, null for clean fixtures.
+	 */
+	@Benchmark
+	public DuplicateFixPlan findDuplicates() {
+		return fixer.planDuplicates(hrefs, document.getRootElement());
+	}
+
+	/**
+	 * Saving the document with the atomic replace.
+	 *
+	 * @return True if the document was saved.
+	 */
+	@Benchmark
+	public Boolean saveDocument() {
+		return fixer.saveDocument(document, workFile);
+	}
+
+	/**
+	 * The whole pipeline for one file, including pre-scan, backup and save.
+	 *
+	 * @param state A fresh copy of the original for every invocation.
+	 * @return The outcome for the file.
+	 */
+	@Benchmark
+	public FixStatus endToEnd(WorkFileState state) {
+		return fixer.fix(state.file);
+	}
+
+	/**
+	 * Applying the planned removals and rewrites, which also recounts the ORDER
+	 * attributes in the same pass.
+	 *
+	 * @param state A fresh copy of the document with its plan for every
+	 *              invocation.
+	 * @return The last ORDER value.
+	 */
+	@Benchmark
+	public int recountingOrder(PlanState state) {
+		return state.plan == null ? 0 : state.plan.apply(state.root);
+	}
+
+	/**
+	 * A copy of the document and the plan for it, the plan changes the document
+	 * so it cannot be reused between invocations.
+	 */
+	@State(Scope.Thread)
+	public static class PlanState {
+		private Element root;
+		private DuplicateFixPlan plan;
+
+		/**
+		 * Clones the parsed document and plans its fix.
+		 *
+		 * @param benchmark The benchmark holding the parsed document.
+		 */
+		@Setup(Level.Invocation)
+		public void setUp(FixPipelineBenchmark benchmark) {
+			root = benchmark.document.clone().getRootElement();
+			plan = benchmark.fixer.planDuplicates(benchmark.hrefs, root);
+		}
+	}
+
+	/**
+	 * A fresh copy of the original file, the fix replaces the file and creates a
+	 * backup next to it.
+	 */
+	@State(Scope.Thread)
+	public static class WorkFileState {
+		private File file;
+		private Path directory;
+
+		/**
+		 * Restores the original file.
+		 *
+		 * @param benchmark The benchmark holding the original file.
+		 * @throws IOException If the file cannot be copied.
+		 */
+		@Setup(Level.Invocation)
+		public void setUp(FixPipelineBenchmark benchmark) throws IOException {
+			file = benchmark.workFile;
+			directory = file.toPath().getParent();
+			Files.copy(benchmark.originalFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		/**
+		 * Deletes the backups, their names only differ in milliseconds.
+		 *
+		 * @throws IOException If the directory cannot be listed.
+		 */
+		@TearDown(Level.Invocation)
+		public void tearDown() throws IOException {
+			try (DirectoryStream<Path> backups = Files.newDirectoryStream(directory, "meta.xml.*")) {
+				for (Path backup : backups) {
+					Files.delete(backup);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs all benchmarks with the GC profiler for the allocation rate.
+	 *
+	 * @param args Optional regular expression selecting the benchmarks.
+	 * @throws RunnerException If the benchmarks fail.
+	 */
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(args.length > 0 ? args[0] : FixPipelineBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,34 @@
+package io.goobi.dlc;
+
+import java.util.Locale;
+
+/**
+ * How the original meta.xml is kept before it is fixed.
+ */
+enum BackupStrategy {
+	/** Full copy of the file, keeping its attributes. */
+	COPY,
+	/**
+	 * Hard link to the original file. Fixed files are saved by writing a new file
+	 * and renaming it, so the link keeps the untouched original without copying a
+	 * single byte.
+	 */
+	HARDLINK,
+	/** Gzip compressed copy of the file. */
+	GZIP;
+
+	/**
+	 * Parses the value of the --backup option.
+	 *
+	 * @param value The name of the strategy, case insensitive.
+	 * @return The matching strategy.
+	 * @throws IllegalArgumentException If the name is unknown.
+	 */
+	static BackupStrategy fromOption(String value) {
+		try {
+			return valueOf(value.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("--backup expects copy, hardlink or gzip: " + value);
+		}
+	}
+}
@@ -1,6 +1,26 @@
 package io.goobi.dlc;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -8,65 +28,261 @@ import org.apache.logging.log4j.Logger;
 /**
  * This class deletes backuped files created during a specific process. It looks
  * for files in a given directory and its subdirectories that match a certain
- * pattern and deletes them.
+ * pattern and deletes them. Directories are processed in parallel and the
+ * deletion can be limited by retention policies.
+ *
+ * <pre>
+ * CleanupBackups [--keep N] [--older-than-days X] [--dry-run] [--threads N] &lt;directory&gt;
+ * </pre>
  */
 public class CleanupBackups {
 
 	private static final Logger logger = LogManager.getLogger(CleanupBackups.class);
+	// If the filename is in this format: meta.xml.yyyy-MM-dd-HHmmssSSS then it is a
+	// backup
+	private static final Pattern BACKUP_PATTERN = Pattern.compile("meta\\.xml\\.\\d+.*");
+	private static final Pattern BACKUP_TIMESTAMP = Pattern.compile("meta\\.xml\\.(\\d{4}-\\d{2}-\\d{2}-\\d{9}).*");
+	private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd-HHmmssSSS");
+
+	// Number of newest backups kept per directory
+	private int keepNewest = 0;
+	// Only backups older than this are deleted, 0 deletes backups of any age
+	private int olderThanDays = 0;
+	private boolean dryRun = false;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	private final LongAdder backupsDeleted = new LongAdder();
+	private final LongAdder bytesReclaimed = new LongAdder();
+	// Directories already visited, protects against symbolic link loops
+	private final Set<Object> visitedDirectories = ConcurrentHashMap.newKeySet();
 
 	/**
 	 * The main entry point of the application.
 	 *
-	 * @param args Command line arguments - specify only one directory.
+	 * @param args Command line arguments - options and only one directory.
 	 */
 	public static void main(String[] args) {
-		if (args.length != 1) {
+		CleanupBackups fileProcessor = new CleanupBackups();
+		File directory = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if ("--keep".equals(arg)) {
+					fileProcessor.keepNewest = parseNumber(arg, args, ++i);
+				} else if ("--older-than-days".equals(arg)) {
+					fileProcessor.olderThanDays = parseNumber(arg, args, ++i);
+				} else if ("--threads".equals(arg)) {
+					fileProcessor.threads = Math.max(1, parseNumber(arg, args, ++i));
+				} else if ("--dry-run".equals(arg)) {
+					fileProcessor.dryRun = true;
+				} else if (arg.startsWith("--")) {
+					throw new IllegalArgumentException("Unknown option: " + arg);
+				} else if (directory == null) {
+					directory = new File(arg).getAbsoluteFile();
+				} else {
+					throw new IllegalArgumentException("Please specify only one directory.");
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			logger.error(e.getMessage());
+			return;
+		}
+
+		if (directory == null) {
 			// Log an error if the number of specified directories is not equal to one
 			logger.error("Please specify only one directory.");
-		} else {
+		} else if (directory.exists()) {
 			// Process the specified directory and its subdirectories if it exists
-			File directory = new File(args[0]).getAbsoluteFile();
-			if (directory.exists()) {
-				CleanupBackups fileProcessor = new CleanupBackups();
-				int numberOfBackups = fileProcessor.processFiles(directory);
-				logger.info("Total duplicate files deleted: " + numberOfBackups);
+			int numberOfBackups = fileProcessor.processFiles(directory);
+			if (fileProcessor.dryRun) {
+				logger.info("Total duplicate files that would be deleted: " + numberOfBackups);
+				logger.info("Bytes that would be reclaimed: " + fileProcessor.getBytesReclaimed());
 			} else {
-				// Log an error if the specified path is not a valid directory
-				logger.error("Please specify a valid directory.");
+				logger.info("Total duplicate files deleted: " + numberOfBackups);
+				logger.info("Bytes reclaimed: " + fileProcessor.getBytesReclaimed());
+			}
+		} else {
+			// Log an error if the specified path is not a valid directory
+			logger.error("Please specify a valid directory.");
+		}
+	}
+
+	/**
+	 * Parses the non negative number following an option.
+	 *
+	 * @param option The name of the option.
+	 * @param args   The command line arguments.
+	 * @param index  The index of the number.
+	 * @return The parsed number.
+	 */
+	private static int parseNumber(String option, String[] args, int index) {
+		if (index >= args.length) {
+			throw new IllegalArgumentException("Missing value for " + option);
+		}
+		try {
+			int number = Integer.parseInt(args[index]);
+			if (number >= 0) {
+				return number;
 			}
+		} catch (NumberFormatException e) {
+			// Handled below
 		}
+		throw new IllegalArgumentException(option + " expects a number: " + args[index]);
 	}
 
 	/**
 	 * Process files in the given directory and its subdirectories, deleting files
-	 * that match a specific pattern.
-	 * 
+	 * that match a specific pattern and are not kept by the retention policy.
+	 *
 	 * @param directory The directory to process.
 	 * @return The number of duplicate files deleted.
 	 */
 	int processFiles(File directory) {
-		int numberOfBackups = 0;
-
+		backupsDeleted.reset();
+		bytesReclaimed.reset();
+		visitedDirectories.clear();
 		if (directory.isDirectory()) {
-			// List all files in the directory, including subdirectories
-			File[] files = directory.listFiles();
-			if (files != null) {
-				// Find and delete files that match the specified pattern
-				for (File file : files) {
-					if (file.isDirectory()) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				pool.invoke(new DirectoryTask(directory.toPath()));
+			} finally {
+				pool.shutdown();
+			}
+		}
+		return backupsDeleted.intValue();
+	}
+
+	/**
+	 * Sets whether backups are only reported instead of deleted.
+	 *
+	 * @param dryRun True to delete nothing.
+	 */
+	void setDryRun(boolean dryRun) {
+		this.dryRun = dryRun;
+	}
+
+	/**
+	 * Returns the size of the backups deleted, or that would be deleted in a dry
+	 * run, by the last call of processFiles.
+	 *
+	 * @return The number of bytes reclaimed.
+	 */
+	long getBytesReclaimed() {
+		return bytesReclaimed.sum();
+	}
+
+	/**
+	 * Applies the retention policy to the backups of one directory and deletes the
+	 * backups that are not kept.
+	 *
+	 * @param backups The backups found in the directory.
+	 */
+	private void deleteBackups(List<Backup> backups) {
+		// Newest backups first
+		backups.sort(Comparator.comparingLong((Backup backup) -> backup.timestamp).reversed());
+		long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(olderThanDays);
+		for (int i = keepNewest; i < backups.size(); i++) {
+			Backup backup = backups.get(i);
+			if (olderThanDays > 0 && backup.timestamp > cutoff) {
+				continue;
+			}
+			if (dryRun) {
+				logger.trace("Would delete file: " + backup.path);
+			} else {
+				logger.trace("Deleting file: " + backup.path);
+				try {
+					// Delete the file
+					Files.delete(backup.path);
+				} catch (IOException e) {
+					logger.warn("Cannot delete " + backup.path + ": " + e);
+					continue;
+				}
+			}
+			backupsDeleted.increment();
+			bytesReclaimed.add(backup.size);
+		}
+	}
+
+	/**
+	 * Returns the time a backup was created. The timestamp in the filename is
+	 * used because copied and hard linked backups keep the modification time of
+	 * the original file.
+	 *
+	 * @param fileName The name of the backup file.
+	 * @param attrs    The attributes of the backup file.
+	 * @return The creation time in milliseconds.
+	 */
+	static long backupTimestamp(String fileName, BasicFileAttributes attrs) {
+		Matcher matcher = BACKUP_TIMESTAMP.matcher(fileName);
+		if (matcher.matches()) {
+			try {
+				return LocalDateTime.parse(matcher.group(1), TIMESTAMP_FORMAT).atZone(ZoneId.systemDefault())
+						.toInstant().toEpochMilli();
+			} catch (DateTimeParseException e) {
+				// Fall back to the modification time
+			}
+		}
+		return attrs.lastModifiedTime().toMillis();
+	}
+
+	/**
+	 * A backup file found in a directory.
+	 */
+	private static class Backup {
+		private final Path path;
+		private final long size;
+		private final long timestamp;
+
+		Backup(Path path, long size, long timestamp) {
+			this.path = path;
+			this.size = size;
+			this.timestamp = timestamp;
+		}
+	}
+
+	/**
+	 * Processes a single directory: cleans up its backups and forks a task for
+	 * every subdirectory.
+	 */
+	private class DirectoryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Path directory;
+
+		DirectoryTask(Path directory) {
+			this.directory = directory;
+		}
+
+		@Override
+		protected void compute() {
+			List<DirectoryTask> subdirectories = new ArrayList<>();
+			List<Backup> backups = new ArrayList<>();
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+				for (Path entry : entries) {
+					BasicFileAttributes attrs;
+					try {
+						attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+					} catch (IOException e) {
+						logger.trace("Cannot read " + entry, e);
+						continue;
+					}
+					String fileName = entry.getFileName().toString();
+					if (attrs.isDirectory()) {
 						// Recursively process files in subdirectories
-						numberOfBackups += processFiles(file);
-						// If the filename is in this format: meta.xml.yyyy-MM-dd-HHmmssSSS then it will
-						// be deleted
-					} else if (file.getName().matches("meta\\.xml\\.\\d+.*")) {
-						logger.trace("Deleting file: " + file.getAbsolutePath());
-						numberOfBackups++;
-						// Delete the file
-						file.delete();
+						Object key = attrs.fileKey() != null ? attrs.fileKey() : entry.toAbsolutePath().normalize();
+						if (visitedDirectories.add(key)) {
+							subdirectories.add(new DirectoryTask(entry));
+						}
+					} else if (BACKUP_PATTERN.matcher(fileName).matches()) {
+						backups.add(new Backup(entry, attrs.size(), backupTimestamp(fileName, attrs)));
 					}
 				}
+			} catch (IOException e) {
+				logger.trace("Cannot list " + directory, e);
+			}
+			if (!backups.isEmpty()) {
+				deleteBackups(backups);
 			}
+			invokeAll(subdirectories);
 		}
-		return numberOfBackups;
 	}
-}
\ No newline at end of file
+}
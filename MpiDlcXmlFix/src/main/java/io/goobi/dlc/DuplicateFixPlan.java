@@ -0,0 +1,219 @@
+package io.goobi.dlc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jdom2.Attribute;
+import org.jdom2.Element;
+
+/**
+ * Collects all removals and structLink rewrites that are needed to fix the
+ * duplicates of one document. Nothing is changed while the plan is built. The
+ * structLink rewrites are applied directly to the smLink attributes found by
+ * the index, the removals in a single pass that also renumbers the ORDER
+ * attributes.
+ */
+class DuplicateFixPlan {
+	private static final Logger logger = LogManager.getLogger(DuplicateFixPlan.class);
+
+	private final MetsIndex index;
+	private final List<String> duplicateHrefs = new ArrayList<>();
+	private final List<String> removedIDs = new ArrayList<>();
+	private final Set<Element> elementsToRemove = Collections.newSetFromMap(new IdentityHashMap<Element, Boolean>());
+	private final Map<Attribute, String> attributesToRewrite = new IdentityHashMap<>();
+
+	/**
+	 * Creates an empty plan for the indexed document.
+	 *
+	 * @param index The index of the document to fix.
+	 */
+	DuplicateFixPlan(MetsIndex index) {
+		this.index = index;
+	}
+
+	/**
+	 * Adds the changes for one duplicate href to the plan. The first mets:file and
+	 * physical mets:div are kept, all others are removed together with the
+	 * smLinks pointing to them.
+	 *
+	 * @param href The duplicate href value.
+	 */
+	void addDuplicate(String href) {
+		duplicateHrefs.add(href);
+
+		// Find the ID values of the parent elements
+		List<String> fileIDValues = index.getFileIDs(href);
+
+		// Find the Phys values of the parent elements
+		List<String> physIDValues = new ArrayList<>();
+		for (String fileIDValue : fileIDValues) {
+			physIDValues.addAll(index.getPhysIDs(fileIDValue));
+		}
+
+		// Skip the first Object in the Lists so we dont delete it from the xml file
+		for (int i = 1; i < fileIDValues.size(); i++) {
+			removeID(fileIDValues.get(i));
+		}
+		for (int i = 1; i < physIDValues.size(); i++) {
+			String physIDValue = physIDValues.get(i);
+			removeID(physIDValue);
+			planStructLinks(physIDValue, physIDValues.get(0));
+		}
+	}
+
+	/**
+	 * Marks all elements with the given ID for removal.
+	 *
+	 * @param id The ID of the elements to remove.
+	 */
+	private void removeID(String id) {
+		removedIDs.add(id);
+		elementsToRemove.addAll(index.getElements(id));
+	}
+
+	/**
+	 * Plans the structLink changes for a removed PHYS ID. smLinks pointing to the
+	 * removed div are dropped, any other reference is rewritten to the kept div.
+	 *
+	 * @param physIDValue     The removed PHYS ID.
+	 * @param keptPhysIDValue The PHYS ID that is kept.
+	 */
+	private void planStructLinks(String physIDValue, String keptPhysIDValue) {
+		for (Element smLink : index.getSmLinks(physIDValue)) {
+			for (Attribute attribute : smLink.getAttributes()) {
+				if (physIDValue.equals(attribute.getValue())) {
+					if ("to".equals(attribute.getName())) {
+						elementsToRemove.add(smLink);
+					} else {
+						attributesToRewrite.put(attribute, keptPhysIDValue);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns whether the plan contains any duplicates.
+	 *
+	 * @return True if at least one duplicate was added.
+	 */
+	boolean isEmpty() {
+		return duplicateHrefs.isEmpty();
+	}
+
+	/**
+	 * Returns the duplicate hrefs in the order they were added.
+	 *
+	 * @return List of duplicate hrefs.
+	 */
+	List<String> getDuplicateHrefs() {
+		return duplicateHrefs;
+	}
+
+	/**
+	 * Returns the IDs of the mets:file and mets:div elements that are removed.
+	 *
+	 * @return List of removed IDs.
+	 */
+	List<String> getRemovedIDs() {
+		return removedIDs;
+	}
+
+	/**
+	 * Applies all planned changes: rewrites the planned structLink values, then
+	 * removes the planned elements and renumbers every ORDER attribute of the
+	 * remaining elements starting with 1 in one traversal.
+	 *
+	 * @param rootElement The root element of the indexed document.
+	 * @return The number of ORDER attributes after the renumbering.
+	 */
+	int apply(Element rootElement) {
+		return apply(rootElement, null);
+	}
+
+	/**
+	 * Applies all planned changes like {@link #apply(Element)} and records them
+	 * for undoing.
+	 *
+	 * @param rootElement The root element of the indexed document.
+	 * @param changes     Receives the removed elements and the old values of the
+	 *                    changed attributes, null if not recorded.
+	 * @return The number of ORDER attributes after the renumbering.
+	 */
+	int apply(Element rootElement, UndoJournal.Changes changes) {
+		rewriteStructLinks(changes);
+		return applyToElement(rootElement, 0, "", changes);
+	}
+
+	/**
+	 * Rewrites the planned smLink attributes to the kept PHYS IDs. Only the
+	 * attributes found by the index are touched, before any element is removed so
+	 * the recorded positions are those of the original document.
+	 *
+	 * @param changes Receives the old values, null if not recorded.
+	 */
+	private void rewriteStructLinks(UndoJournal.Changes changes) {
+		for (Map.Entry<Attribute, String> rewrite : attributesToRewrite.entrySet()) {
+			Attribute attribute = rewrite.getKey();
+			if (logger.isTraceEnabled()) {
+				logger.trace("Rewriting " + attribute.getName() + "=\"" + attribute.getValue() + "\" to "
+						+ rewrite.getValue());
+			}
+			if (changes != null) {
+				changes.attributeChanged(UndoJournal.pathOf(attribute.getParent()), attribute);
+			}
+			attribute.setValue(rewrite.getValue());
+		}
+	}
+
+	/**
+	 * Applies the planned changes to the element and its remaining children.
+	 *
+	 * @param element    The current XML element.
+	 * @param orderValue The last ORDER value that was assigned.
+	 * @param path       The position of the element in the unchanged document,
+	 *                   only used for recording.
+	 * @param changes    Receives the changes, null if not recorded.
+	 * @return The last ORDER value after this element and its children.
+	 */
+	private int applyToElement(Element element, int orderValue, String path, UndoJournal.Changes changes) {
+		// Set the value of the 'ORDER' attribute to the next orderValue
+		Attribute order = element.hasAttributes() ? element.getAttribute("ORDER") : null;
+		if (order != null) {
+			orderValue++;
+			String newValue = Integer.toString(orderValue);
+			if (!newValue.equals(order.getValue())) {
+				if (changes != null) {
+					changes.attributeChanged(path, order);
+				}
+				order.setValue(newValue);
+			}
+		}
+
+		Iterator<Element> children = element.getChildren().iterator();
+		// Position of the child among the element children before any removal
+		int childIndex = 0;
+		while (children.hasNext()) {
+			Element child = children.next();
+			String childPath = changes != null ? UndoJournal.childPath(path, childIndex) : null;
+			if (elementsToRemove.contains(child)) {
+				if (changes != null) {
+					changes.removed(childPath, child);
+				}
+				// Remove the element itself from its parent
+				children.remove();
+			} else {
+				orderValue = applyToElement(child, orderValue, childPath, changes);
+			}
+			childIndex++;
+		}
+		return orderValue;
+	}
+}
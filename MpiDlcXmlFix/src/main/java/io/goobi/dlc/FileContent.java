@@ -0,0 +1,200 @@
+package io.goobi.dlc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * The content of one meta.xml, read from storage at most once per fix. The
+ * bytes are read with large reads into a buffer of one read that is kept per
+ * thread and reused for the next file, larger files grow a copy that only lives
+ * while the file is processed. Every stream returned by {@link #newInputStream()}
+ * replays the bytes read so far and reads further only when it gets past them,
+ * so the pre-scan, the parser, the hash and the backup all share the same read
+ * and a clean file is still only read up to the end of its mets:fileSec.
+ *
+ * <p>
+ * The file is not memory-mapped: a mapping cannot be released reliably before
+ * the fixed file replaces the original, and the parsers read a stream anyway.
+ * </p>
+ */
+class FileContent implements Closeable {
+	// Size of a single read and of the buffer kept per thread
+	static final int READ_SIZE = 1024 * 1024;
+	// The buffer of the thread, null while it is lent to an open file
+	private static final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[READ_SIZE]);
+
+	private final File file;
+	// The buffer of the thread, given back on close even if the content outgrew it
+	private final byte[] lent;
+	private FileChannel channel;
+	private byte[] bytes;
+	private int length;
+
+	/**
+	 * Opens a file, nothing is read yet.
+	 *
+	 * @param file The file to read.
+	 * @return The content of the file.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	static FileContent open(File file) throws IOException {
+		return new FileContent(file, FileChannel.open(file.toPath(), StandardOpenOption.READ));
+	}
+
+	/**
+	 * Creates the content of an opened file.
+	 *
+	 * @param file    The file.
+	 * @param channel The channel to read from.
+	 */
+	private FileContent(File file, FileChannel channel) {
+		this.file = file;
+		this.channel = channel;
+		byte[] buffer = buffers.get();
+		// A second file opened by the same thread gets its own buffer
+		this.lent = buffer != null ? buffer : new byte[READ_SIZE];
+		this.bytes = lent;
+		buffers.set(null);
+	}
+
+	/**
+	 * Returns a stream over the whole content, starting with the bytes that were
+	 * already read. Several streams can be used one after the other.
+	 *
+	 * @return A new stream, closing it does not close the file.
+	 */
+	InputStream newInputStream() {
+		return new InputStream() {
+			private int position;
+
+			@Override
+			public int read() throws IOException {
+				if (position == length && !fill()) {
+					return -1;
+				}
+				return bytes[position++] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] target, int offset, int count) throws IOException {
+				if (count == 0) {
+					return 0;
+				}
+				if (position == length && !fill()) {
+					return -1;
+				}
+				int copied = Math.min(count, length - position);
+				System.arraycopy(bytes, position, target, offset, copied);
+				position += copied;
+				return copied;
+			}
+
+			@Override
+			public int available() {
+				return length - position;
+			}
+		};
+	}
+
+	/**
+	 * Reads the rest of the file, the file is closed afterwards.
+	 *
+	 * @throws IOException If the file cannot be read.
+	 */
+	void readFully() throws IOException {
+		while (fill()) {
+			// Reads until the end of the file
+		}
+	}
+
+	/**
+	 * Reads the next block of the file into the buffer, growing it if it is
+	 * full. The file is closed when its end is reached.
+	 *
+	 * @return True if bytes were read, false at the end of the file.
+	 * @throws IOException If the file cannot be read.
+	 */
+	private boolean fill() throws IOException {
+		if (channel == null) {
+			return false;
+		}
+		if (bytes.length - length < READ_SIZE) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + READ_SIZE));
+		}
+		int read = channel.read(ByteBuffer.wrap(bytes, length, Math.min(READ_SIZE, bytes.length - length)));
+		if (read < 0) {
+			channel.close();
+			channel = null;
+			return false;
+		}
+		length += read;
+		return true;
+	}
+
+	/**
+	 * @return The SHA-256 hash of the whole content as lower case hex string,
+	 *         like {@link ScanManifest#hash(File)}.
+	 * @throws IOException If the file cannot be read.
+	 */
+	String hash() throws IOException {
+		readFully();
+		MessageDigest digest = ScanManifest.newDigest();
+		digest.update(bytes, 0, length);
+		return ScanManifest.toHex(digest.digest());
+	}
+
+	/**
+	 * Writes the whole content to a stream.
+	 *
+	 * @param out The stream to write to.
+	 * @throws IOException If the file cannot be read or the stream cannot be
+	 *                     written.
+	 */
+	void writeTo(OutputStream out) throws IOException {
+		readFully();
+		out.write(bytes, 0, length);
+	}
+
+	/**
+	 * @return The file the content belongs to.
+	 */
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return The number of bytes read so far.
+	 */
+	int getBytesRead() {
+		return length;
+	}
+
+	/**
+	 * Closes the file if it is still open and gives the buffer of
+	 * {@link #READ_SIZE} back to the thread. A larger buffer grown for this file
+	 * is left to the garbage collector, so an idle thread never holds more than
+	 * one read.
+	 *
+	 * @throws IOException If the file cannot be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (buffers.get() == null) {
+			buffers.set(lent);
+		}
+		bytes = new byte[0];
+		length = 0;
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package io.goobi.dlc;
+
+import java.util.Locale;
+
+/**
+ * How a meta.xml with duplicates is rewritten.
+ */
+enum FixEngine {
+	/** Parses the whole file into a JDOM tree, fixes and serializes it. */
+	DOM,
+	/**
+	 * Two StAX passes: a light index pass plans the changes, the second pass
+	 * copies the events and drops or rewrites them on the way. Memory does not
+	 * grow with the size of the MODS sections or the number of smLinks.
+	 */
+	STREAM;
+
+	/**
+	 * Parses the value of the --engine option.
+	 *
+	 * @param value The name of the engine, case insensitive.
+	 * @return The matching engine.
+	 * @throws IllegalArgumentException If the name is unknown.
+	 */
+	static FixEngine fromOption(String value) {
+		try {
+			return valueOf(value.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("--engine expects dom or stream: " + value);
+		}
+	}
+}
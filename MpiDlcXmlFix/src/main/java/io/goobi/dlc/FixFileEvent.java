@@ -0,0 +1,38 @@
+package io.goobi.dlc;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for the fix of one meta.xml. The event is only
+ * committed while a recording is running, otherwise it costs next to nothing.
+ * Record a run with {@code -XX:StartFlightRecording=filename=fix.jfr}.
+ */
+@Name("io.goobi.dlc.FixFile")
+@Label("Fix meta.xml")
+@Category("Goobi")
+@Description("Pre-scan, parse, fix and save of one meta.xml")
+@StackTrace(false)
+class FixFileEvent extends Event {
+	@Label("Path")
+	String path;
+
+	@Label("Status")
+	String status;
+
+	@Label("File Size")
+	@DataAmount
+	long fileSize;
+
+	@Label("DOM Elements")
+	long elements;
+
+	@Label("Duplicates")
+	@Description("Number of distinct duplicate hrefs")
+	int duplicates;
+}
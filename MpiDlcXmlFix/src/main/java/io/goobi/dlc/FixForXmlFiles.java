@@ -1,26 +1,53 @@
 package io.goobi.dlc;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LifeCycle;
+import org.apache.logging.log4j.core.impl.Log4jContextFactory;
+import org.apache.logging.log4j.core.util.ShutdownCallbackRegistry;
+import org.apache.logging.log4j.spi.LoggerContextFactory;
 import org.jdom2.Attribute;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 import org.jdom2.input.SAXBuilder;
+import org.jdom2.input.sax.XMLReaders;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
 
+import io.goobi.dlc.StageStatistics.Stage;
+
 /**
  * This class searches tif duplicates in the MPI import
  * 
@@ -29,59 +56,263 @@ import org.jdom2.output.XMLOutputter;
  */
 public class FixForXmlFiles {
 	private static final Logger logger = LogManager.getLogger(FixForXmlFiles.class);
-	private int filesWithDuplicates = 0;
-	private int totalDuplicates = 0;
+	private static final int SAVE_BUFFER_SIZE = 64 * 1024;
+	// Time the shutdown of a watching run waits for the current batch
+	private static final long SHUTDOWN_TIMEOUT_MILLIS = 60_000;
+	// One reusable parser per thread, SAXBuilder itself is not thread safe
+	private static final ThreadLocal<SAXBuilder> saxBuilders = ThreadLocal.withInitial(FixForXmlFiles::createSaxBuilder);
+	// Striped counters, updated concurrently by the worker threads
+	private final LongAdder filesWithDuplicates = new LongAdder();
+	private final LongAdder totalDuplicates = new LongAdder();
+	private final HrefPreScanner preScanner = new HrefPreScanner();
+	private final StageStatistics statistics = new StageStatistics();
+	private final StreamingMetsRewriter streamingRewriter = new StreamingMetsRewriter();
+	// JSON lines report of the files with duplicates, null if not written
+	private FixReport report;
+	// Completed files for resuming an interrupted run, null if not kept
+	private ProgressJournal journal;
+	// Changes for undoing the run, replaces the backups, null if not kept
+	private UndoJournal undoJournal;
+	private final FixOptions options;
+	// Limits the DOMs processed at the same time, null if unlimited
+	private final HeapBudget heapBudget;
+
+	/**
+	 * Creates a fixer with the default options.
+	 */
+	public FixForXmlFiles() {
+		this(new FixOptions());
+	}
+
+	/**
+	 * Creates a fixer with the given options.
+	 *
+	 * @param options The options of the run.
+	 */
+	FixForXmlFiles(FixOptions options) {
+		this.options = options;
+		this.heapBudget = options.getHeapBudget() > 0 ? new HeapBudget(options.getHeapBudget()) : null;
+	}
 
 	/**
 	 * The main entry point of the application for processing XML files
 	 *
-	 * @param args Directory to check
+	 * @param args Directory to check, optionally preceded by the options of
+	 *             {@link FixOptions}
 	 */
 	public static void main(String[] args) {
+		FixOptions options;
+		try {
+			options = FixOptions.parse(args);
+		} catch (IllegalArgumentException e) {
+			logger.error(e.getMessage());
+			return;
+		}
 
-		// List to store parent directory names of files with duplicates
-		List<String> folderList = new ArrayList<>();
+		// Instantiating non static functions
+		FixForXmlFiles fixer = new FixForXmlFiles(options);
+
+		File directory = options.getDirectory();
+		if (directory.exists() && directory.isDirectory()) {
+			List<String> folderList;
+			try (FixReport report = options.getReport() != null ? new FixReport(options.getReport()) : null;
+					ProgressJournal journal = options.getJournal() != null
+							? ProgressJournal.open(options.getJournal(), options.isResume())
+							: null;
+					UndoJournal undoJournal = options.getUndoJournal() != null
+							? UndoJournal.open(options.getUndoJournal())
+							: null) {
+				fixer.setReport(report);
+				fixer.setJournal(journal);
+				fixer.setUndoJournal(undoJournal);
+				folderList = fixer.run(directory);
+				if (journal != null) {
+					logger.info("Number of files resumed from journal: " + journal.getResumedFiles());
+				}
+			} catch (IOException e) {
+				logger.error("Error processing directory: " + directory, e);
+				return;
+			}
+
+			if (options.isDryRun()) {
+				logger.info("Dry run, no files were changed.");
+			}
+			logger.info("Number of files with duplicates: " + fixer.filesWithDuplicates.sum());
+			logger.info("Total count of duplicates: " + fixer.totalDuplicates.sum());
+
+			// log filter query for goobi processes
+			StringBuilder stringBuilder = new StringBuilder();
+			for (int i = 0; i < folderList.size(); i++) {
+				String element = folderList.get(i);
+				stringBuilder.append(element);
+				if (i != folderList.size() - 1) {
+					stringBuilder.append(" ");
+				}
+			}
+			logger.info("\"id: " + stringBuilder + "\"");
+			fixer.statistics.logSummary();
+
+			if (options.getSummary() != null) {
+				try {
+					fixer.createSummary(folderList).save(options.getSummary());
+				} catch (IOException e) {
+					logger.error("Cannot write summary " + options.getSummary() + ": " + e.getMessage());
+				}
+			}
 
-		if (args.length != 1) {
-			logger.error("Please specify only one directory.");
 		} else {
-			// Instantiating non static functions
-			FixForXmlFiles fixer = new FixForXmlFiles();
-
-			File directory = new File(args[0]).getAbsoluteFile();
-			if (directory.exists() && directory.isDirectory()) {
-				// Process files in the directory that have the specified XML pattern
-				List<File> filesWithMetaXml = fixer.processFiles(directory);
-
-				// Process each XML file and identify duplicates
-				for (File file : filesWithMetaXml) {
-					Element rootElement = fixer.processXmlFile(file);
-					if (rootElement != null) {
-						List<String> tifElementsList = fixer.collectXmlElements(rootElement);
-						// Find duplicates and obtain the parent directory
-						boolean hasDuplicates = fixer.findDuplicates(tifElementsList, file);
-						if (hasDuplicates) {
-							folderList.add(new File(file.getParent()).getName());
-						}
-					}
+			logger.error("Das Verzeichnis existiert nicht.");
+		}
+	}
+
+	/**
+	 * Fixes all meta.xml files below the directory while the directory is still
+	 * searched. With a scan manifest the files that did not change since the last
+	 * run are skipped, a dry run only reads the manifest.
+	 *
+	 * @param directory The directory to be searched.
+	 * @return The parent directory names of the files with duplicates.
+	 * @throws IOException If the directory or the manifest cannot be read.
+	 */
+	private List<String> run(File directory) throws IOException {
+		if (options.isWatch()) {
+			return watch(directory);
+		}
+		if (options.getIds() != null) {
+			return fixListedProcesses(directory);
+		}
+		MetaXmlDiscoverer discoverer = new MetaXmlDiscoverer(directory.toPath());
+		FixRunner runner = new FixRunner(this, options.getThreads());
+		Shard shard = options.getShard();
+		if (shard != null) {
+			logger.info("Processing shard " + shard + " of " + directory);
+		}
+		if (options.getManifest() == null) {
+			return runner.run(statistics.timeDiscovery(consumer -> discoverer.discover(file -> {
+				if (shard == null || shard.contains(file)) {
+					consumer.accept(file);
 				}
+			})));
+		}
 
-				logger.info("Number of files with duplicates: " + fixer.filesWithDuplicates);
-				logger.info("Total count of duplicates: " + fixer.totalDuplicates);
+		// Skip the files that did not change since the last run
+		ScanManifest manifest = ScanManifest.load(options.getManifest());
+		if (!options.isDryRun()) {
+			runner.setFingerprints(true);
+			runner.addListener(manifest::record);
+		}
+		List<String> folderList = runner.run(
+				statistics.timeDiscovery(consumer -> discoverer.discoverWithAttributes((file, attrs) -> {
+					if ((shard == null || shard.contains(file)) && !manifest.isUnchanged(file, attrs)) {
+						consumer.accept(file);
+					}
+				})));
+		if (!options.isDryRun()) {
+			manifest.save(options.getManifest(), shard);
+		}
+		logger.info("Number of unchanged files skipped: " + manifest.getSkippedFiles());
+		return folderList;
+	}
 
-				// log filter query for goobi processes
-				StringBuilder stringBuilder = new StringBuilder();
-				for (int i = 0; i < folderList.size(); i++) {
-					String element = folderList.get(i);
-					stringBuilder.append(element);
-					if (i != folderList.size() - 1) {
-						stringBuilder.append(" ");
+	/**
+	 * Fixes only the processes of the list given with --ids, the directory is not
+	 * walked.
+	 *
+	 * @param directory The metadata directory the process IDs are resolved in.
+	 * @return The parent directory names of the files with duplicates, in the
+	 *         order of the list.
+	 * @throws IOException If the list cannot be read.
+	 */
+	private List<String> fixListedProcesses(File directory) throws IOException {
+		List<String> processes;
+		Path ids = options.getIds();
+		if ("-".equals(ids.toString())) {
+			// Standard input stays open
+			processes = ProcessFixer.readProcesses(
+					new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+		} else {
+			try (BufferedReader reader = Files.newBufferedReader(ids, StandardCharsets.UTF_8)) {
+				processes = ProcessFixer.readProcesses(reader);
+			}
+		}
+
+		ProcessFixer processFixer = new ProcessFixer(directory.toPath(), options);
+		ProcessFixer.Resolved resolved = processFixer.resolveAll(processes);
+		Shard shard = options.getShard();
+		if (shard != null) {
+			resolved.getFiles().removeIf(file -> !shard.contains(file));
+		}
+		logger.info("Processing " + resolved.getFiles().size() + " of " + processes.size() + " listed processes");
+		ProcessFixer.Result result = processFixer.fix(this, resolved);
+		if (!result.getMissingFiles().isEmpty()) {
+			logger.warn("Number of listed processes without meta.xml: " + result.getMissingFiles().size());
+		}
+		return result.getFixedProcessIDs();
+	}
+
+	/**
+	 * Watches the directory and fixes every meta.xml that is written below it,
+	 * until the JVM is shut down. The files that became quiet are fixed as one
+	 * batch.
+	 *
+	 * @param directory The directory to be watched.
+	 * @return The parent directory names of all files fixed while watching.
+	 * @throws IOException If the directory cannot be watched.
+	 */
+	private List<String> watch(File directory) throws IOException {
+		List<String> folderList = new ArrayList<>();
+		Shard shard = options.getShard();
+		try (MetaXmlWatcher watcher = new MetaXmlWatcher(directory.toPath(), options.getDebounceMillis())) {
+			// Stop watching on Ctrl+C or SIGTERM, main then closes the report and the
+			// journals and logs the totals before logging is shut down
+			Thread mainThread = Thread.currentThread();
+			disableLogShutdownHook();
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					watcher.stop();
+					mainThread.join(SHUTDOWN_TIMEOUT_MILLIS);
+				} catch (IOException e) {
+					logger.error("Error closing the watch service", e);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					LogManager.shutdown();
+				}
+			}));
+
+			watcher.run(files -> {
+				List<File> batch = new ArrayList<>();
+				for (File file : files) {
+					if (shard == null || shard.contains(file)) {
+						batch.add(file);
 					}
 				}
-				logger.info("\"id: " + stringBuilder + "\"");
+				FixRunner runner = new FixRunner(this, options.getThreads());
+				runner.addListener((file, status, fingerprint) -> {
+					if (status == FixStatus.FIXED && !options.isDryRun()) {
+						watcher.ignoreOwnWrite(file);
+					}
+				});
+				List<String> fixed = runner.run(batch);
+				folderList.addAll(fixed);
+				logger.info("Processed " + batch.size() + " changed files, fixed: \"id: " + String.join(" ", fixed)
+						+ "\"");
+			});
+		}
+		return folderList;
+	}
 
-			} else {
-				logger.error("Das Verzeichnis existiert nicht.");
+	/**
+	 * Removes the shutdown hook of log4j, which would stop logging while main is
+	 * still logging the totals of a watching run. The shutdown hook of
+	 * {@link #watch(File)} shuts logging down instead once main is done.
+	 */
+	private static void disableLogShutdownHook() {
+		LoggerContextFactory factory = LogManager.getFactory();
+		if (factory instanceof Log4jContextFactory) {
+			ShutdownCallbackRegistry registry = ((Log4jContextFactory) factory).getShutdownCallbackRegistry();
+			if (registry instanceof LifeCycle) {
+				((LifeCycle) registry).stop();
 			}
 		}
 	}
@@ -96,22 +327,298 @@ public class FixForXmlFiles {
 	List<File> processFiles(File directory) {
 		List<File> filesWithMetaXml = new ArrayList<>();
 		if (directory.isDirectory()) {
-			File[] files = directory.listFiles();
-			if (files != null) {
+			try {
 				// Finds all the files that are named meta.xml
-				for (File file : files) {
-					if (file.isFile() && "meta.xml".equals(file.getName())) {
-						// logger.trace("meta.xml found");
-						filesWithMetaXml.add(file);
-					} else if (file.isDirectory()) {
-						filesWithMetaXml.addAll(processFiles(file));
-					}
-				}
+				new MetaXmlDiscoverer(directory.toPath()).discover(filesWithMetaXml::add);
+			} catch (IOException e) {
+				logger.error("Error reading directory: " + directory, e);
 			}
 		}
 		return filesWithMetaXml;
 	}
 
+	/**
+	 * Creates a non validating parser that does not load external DTDs.
+	 *
+	 * @return The configured SAXBuilder.
+	 */
+	static SAXBuilder createSaxBuilder() {
+		SAXBuilder sax = new SAXBuilder(XMLReaders.NONVALIDATING);
+		sax.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+		sax.setReuseParser(true);
+		return sax;
+	}
+
+	/**
+	 * Parses the XML file with the parser of the current thread.
+	 *
+	 * @param file The XML file to be parsed.
+	 * @return The parsed document.
+	 * @throws JDOMException If the file is not well-formed XML.
+	 * @throws IOException   If the file cannot be read.
+	 */
+	Document parseDocument(File file) throws JDOMException, IOException {
+		return saxBuilders.get().build(file);
+	}
+
+	/**
+	 * Parses content that was already read with the parser of the current thread.
+	 *
+	 * @param content The content of the XML file to be parsed.
+	 * @return The parsed document.
+	 * @throws JDOMException If the file is not well-formed XML.
+	 * @throws IOException   If the file cannot be read.
+	 */
+	private Document parseDocument(FileContent content) throws JDOMException, IOException {
+		// The system ID resolves relative references like parsing the file itself
+		return saxBuilders.get().build(content.newInputStream(), content.getFile().toURI().toString());
+	}
+
+	/**
+	 * Fixes the duplicates of a single meta.xml. A streaming pre-scan skips files
+	 * without duplicate hrefs, all others are parsed once and the same document is
+	 * used for collecting the hrefs, fixing and saving.
+	 *
+	 * @param file The XML file to be processed.
+	 * @return True if duplicates were found, otherwise false.
+	 */
+	boolean fixXmlFile(File file) {
+		return fix(file) == FixStatus.FIXED;
+	}
+
+	/**
+	 * Fixes the duplicates of a single meta.xml like {@link #fixXmlFile(File)} and
+	 * tells whether the file was clean, fixed or could not be processed.
+	 *
+	 * @param file The XML file to be processed.
+	 * @return The outcome for the file.
+	 */
+	FixStatus fix(File file) {
+		return fix(file, null);
+	}
+
+	/**
+	 * Fixes a single meta.xml like {@link #fix(File)} and takes the fingerprint of
+	 * the bytes that were checked or written, so the scan manifest does not have
+	 * to read the file again.
+	 *
+	 * @param file        The XML file to be processed.
+	 * @param fingerprint Receives the size, modification time and hash of a clean
+	 *                    or saved file, null to take none. It stays empty for
+	 *                    files completed by an earlier run, failed files and dry
+	 *                    runs.
+	 * @return The outcome for the file.
+	 */
+	FixStatus fix(File file, ScanManifest.Fingerprint fingerprint) {
+		if (journal != null) {
+			// Completed by an earlier run, only counted again
+			ProgressJournal.Entry completed = journal.getCompleted(file);
+			if (completed != null) {
+				if (completed.getStatus() == FixStatus.FIXED) {
+					filesWithDuplicates.increment();
+					totalDuplicates.add(completed.getDuplicates());
+				}
+				return completed.getStatus();
+			}
+		}
+
+		// Only committed while a flight recording is running
+		FixFileEvent event = new FixFileEvent();
+		event.begin();
+		event.path = file.getPath();
+		event.fileSize = file.length();
+		FixStatus status = fix(file, event, fingerprint);
+		event.status = status.name();
+		event.commit();
+		if (journal != null) {
+			journal.record(file, status, event.duplicates);
+		}
+		return status;
+	}
+
+	/**
+	 * Runs the stages of the fix and records their timing.
+	 *
+	 * @param file        The XML file to be processed.
+	 * @param event       The event of the file, receives the DOM size and the
+	 *                    number of duplicates.
+	 * @param fingerprint Receives the state of a clean or saved file, may be null.
+	 * @return The outcome for the file.
+	 */
+	private FixStatus fix(File file, FixFileEvent event, ScanManifest.Fingerprint fingerprint) {
+		try {
+			// Taken before the file is opened, a later change shows up as a newer time
+			long mtime = fingerprint != null ? Files.getLastModifiedTime(file.toPath()).toMillis() : 0;
+			// Every stage reads the bytes of this single read
+			try (FileContent content = FileContent.open(file)) {
+				FixStatus status = fix(content, event, fingerprint);
+				if (status == FixStatus.CLEAN && fingerprint != null) {
+					// The bytes that were checked, not the file as it is now
+					String hash = content.hash();
+					fingerprint.set(content.getBytesRead(), mtime, hash);
+				}
+				return status;
+			}
+		} catch (IOException e) {
+			logger.error("Error reading XML file: " + file.getAbsolutePath(), e);
+			return FixStatus.FAILED;
+		}
+	}
+
+	/**
+	 * Runs the stages of the fix on the content of a file.
+	 *
+	 * @param content     The content of the XML file to be processed.
+	 * @param event       The event of the file, receives the DOM size and the
+	 *                    number of duplicates.
+	 * @param fingerprint Receives the state of the saved file, may be null.
+	 * @return The outcome for the file.
+	 */
+	private FixStatus fix(FileContent content, FixFileEvent event, ScanManifest.Fingerprint fingerprint) {
+		File file = content.getFile();
+		long start = System.nanoTime();
+		boolean duplicateHrefs = true;
+		try {
+			duplicateHrefs = preScanner.hasDuplicateHrefs(content.newInputStream());
+		} catch (XMLStreamException e) {
+			// Let the DOM based processing handle and report the file
+			logger.trace("Pre-scan failed for " + file, e);
+		}
+		statistics.record(Stage.PRE_SCAN, System.nanoTime() - start, event.fileSize);
+		if (!duplicateHrefs) {
+			if (logger.isTraceEnabled()) {
+				logger.trace("No duplicates found: " + file);
+			}
+			return FixStatus.CLEAN;
+		}
+		FixEngine engine = options.getEngine();
+		if (heapBudget == null) {
+			return engine == FixEngine.STREAM ? fixStreaming(content, event, fingerprint)
+					: fixDom(content, event, fingerprint);
+		}
+
+		// Wait until the file fits into the heap budget, nothing was read past the
+		// pre-scan yet
+		start = System.nanoTime();
+		int reservation;
+		try {
+			reservation = heapBudget.acquire(event.fileSize, engine);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return FixStatus.FAILED;
+		}
+		statistics.record(Stage.HEAP_WAIT, System.nanoTime() - start, HeapBudget.estimate(event.fileSize, engine));
+		try {
+			return engine == FixEngine.STREAM ? fixStreaming(content, event, fingerprint)
+					: fixDom(content, event, fingerprint);
+		} finally {
+			heapBudget.release(reservation);
+		}
+	}
+
+	/**
+	 * Parses, fixes and saves a file with duplicate hrefs as JDOM document.
+	 *
+	 * @param content     The content of the XML file to be processed.
+	 * @param event       The event of the file, receives the DOM size and the
+	 *                    number of duplicates.
+	 * @param fingerprint Receives the state of the saved file, may be null.
+	 * @return The outcome for the file.
+	 */
+	private FixStatus fixDom(FileContent content, FixFileEvent event, ScanManifest.Fingerprint fingerprint) {
+		long start = System.nanoTime();
+		Element rootElement = processXmlFile(content);
+		statistics.record(Stage.PARSE, System.nanoTime() - start, event.fileSize);
+		if (rootElement == null) {
+			return FixStatus.FAILED;
+		}
+		event.elements = countElements(rootElement);
+		statistics.recordDom(event.elements);
+
+		start = System.nanoTime();
+		List<String> tifElementsList = collectXmlElements(rootElement);
+		statistics.record(Stage.COLLECT, System.nanoTime() - start, 0);
+		int duplicates = fixDuplicates(tifElementsList, rootElement.getDocument(), content.getFile(), content,
+				fingerprint);
+		if (duplicates < 0) {
+			return FixStatus.FAILED;
+		}
+		event.duplicates = duplicates;
+		return duplicates > 0 ? FixStatus.FIXED : FixStatus.CLEAN;
+	}
+
+	/**
+	 * Counts the elements of a parsed document.
+	 *
+	 * @param element The element to start counting from.
+	 * @return The number of elements including the given one.
+	 */
+	private static long countElements(Element element) {
+		long count = 1;
+		for (Element child : element.getChildren()) {
+			count += countElements(child);
+		}
+		return count;
+	}
+
+	/**
+	 * Sets the report that receives one JSON line per file with duplicates.
+	 *
+	 * @param report The report, null to write none.
+	 */
+	void setReport(FixReport report) {
+		this.report = report;
+	}
+
+	/**
+	 * Creates the summary of this run for {@link MergeShardSummaries}.
+	 *
+	 * @param folderList The process IDs of the files with duplicates.
+	 * @return The summary.
+	 */
+	ShardSummary createSummary(List<String> folderList) {
+		Shard shard = options.getShard();
+		Path reportFile = options.getReport();
+		// A report on standard output cannot be merged
+		String report = reportFile == null || "-".equals(reportFile.toString()) ? null
+				: reportFile.toAbsolutePath().toString();
+		return new ShardSummary(shard != null ? shard.toString() : "1/1", filesWithDuplicates.sum(),
+				totalDuplicates.sum(), folderList, report);
+	}
+
+	/**
+	 * Sets the journal that records the changes instead of backing up the fixed
+	 * files.
+	 *
+	 * @param undoJournal The journal, null to create backups.
+	 */
+	void setUndoJournal(UndoJournal undoJournal) {
+		this.undoJournal = undoJournal;
+	}
+
+	/**
+	 * Sets the journal of completed files.
+	 *
+	 * @param journal The journal, null to keep none.
+	 */
+	void setJournal(ProgressJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * @return The number of duplicate hrefs found so far.
+	 */
+	long getTotalDuplicates() {
+		return totalDuplicates.sum();
+	}
+
+	/**
+	 * @return The timing of the stages of all files fixed so far.
+	 */
+	StageStatistics getStatistics() {
+		return statistics;
+	}
+
 	/**
 	 * Processes a single XML file and collects all XML elements.
 	 *
@@ -121,18 +628,41 @@ public class FixForXmlFiles {
 	Element processXmlFile(File file) {
 
 		try {
-			SAXBuilder sax = new SAXBuilder();
-			Document doc = sax.build(file);
-			// Collects the rootelement
-			Element rootElement = doc.getRootElement();
-			logger.trace("Root element found: " + rootElement);
-			return rootElement;
+			return rootElementOf(parseDocument(file));
+		} catch (JDOMException | IOException e) {
+			logger.trace("No root element found", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Processes the content of a single XML file that was already read.
+	 *
+	 * @param content The content of the XML file to be processed.
+	 * @return Root XML element of the file, null if it cannot be parsed.
+	 */
+	private Element processXmlFile(FileContent content) {
+		try {
+			return rootElementOf(parseDocument(content));
 		} catch (JDOMException | IOException e) {
 			logger.trace("No root element found", e);
 			return null;
 		}
 	}
 
+	/**
+	 * @param doc The parsed document.
+	 * @return The root element of the document.
+	 */
+	private static Element rootElementOf(Document doc) {
+		// Collects the rootelement
+		Element rootElement = doc.getRootElement();
+		if (logger.isTraceEnabled()) {
+			logger.trace("Root element found: " + rootElement);
+		}
+		return rootElement;
+	}
+
 	/**
 	 * Collects XML elements with attributes ending in ".tif".
 	 *
@@ -145,31 +675,33 @@ public class FixForXmlFiles {
 
 		// Check if the element is not null
 		if (element != null) {
-			// Check attributes of the element
-			List<Attribute> attributes = element.getAttributes();
-			for (Attribute attribute : attributes) {
-				// add .tif attributes to list
-				String attributeValue = attribute.getValue();
-				if (attribute.getName().equals("href")) {
-					tifElementsList.add(attributeValue);
-				}
-			}
+			collectXmlElements(element, tifElementsList);
+		}
 
-			// Check children of the element
-			List<Element> children = element.getChildren();
-			for (Element child : children) {
-				// Recursively collect .tif elements
-				List<String> childTifElements = collectXmlElements(child);
+		// Return the list of .tif elements
+		return tifElementsList;
+	}
 
-				// Filter and add only the elements that end with ".tif"
-				for (String tifElement : childTifElements) {
-					tifElementsList.add(tifElement);
-				}
+	/**
+	 * Adds the href values of the element and its descendants in document order.
+	 * All levels append to the same list, so every href is added exactly once.
+	 *
+	 * @param element         The element to start with.
+	 * @param tifElementsList Receives the href values.
+	 */
+	private static void collectXmlElements(Element element, List<String> tifElementsList) {
+		// Check attributes of the element
+		for (Attribute attribute : element.getAttributes()) {
+			// add .tif attributes to list
+			if (attribute.getName().equals("href")) {
+				tifElementsList.add(attribute.getValue());
 			}
 		}
 
-		// Return the list of .tif elements
-		return tifElementsList;
+		// Recursively collect .tif elements of the children
+		for (Element child : element.getChildren()) {
+			collectXmlElements(child, tifElementsList);
+		}
 	}
 
 	/**
@@ -180,305 +712,455 @@ public class FixForXmlFiles {
 	 * @return Name of the parent directory if duplicates are found, otherwise null.
 	 */
 	boolean findDuplicates(List<String> tifElementsList, File xmlFile) {
-		boolean duplicatesFound = false;
-
-		List<String> tifValues = new ArrayList<>();
-		List<String> tifDuplicatesList = new ArrayList<>();
-		List<String> parentDirectory = new ArrayList<>();
-		List<String> physIDValues = new ArrayList<>();
-		logger.info(xmlFile.getAbsolutePath());
 		try {
-			SAXBuilder sax = new SAXBuilder();
-			Document doc = sax.build(xmlFile);
-			Element rootElement = doc.getRootElement();
-
-			// Adds the .tif values to the list if they are duplicates and not already in
-			// the list
-			for (String tifElement : tifElementsList) {
-				if (!tifValues.contains(tifElement)) {
-					tifValues.add(tifElement);
-				} else {
-					// Generate BackupFiles of the Files with duplicates tif values
-					if (!duplicatesFound) {
-						try {
-							generateBackupFile(xmlFile);
-							logger.info("Backup created");
-						} catch (IOException e) {
-							logger.error("Error creating backup file for: " + xmlFile.getAbsolutePath(), e);
-						}
-					}
-					// Setting duplicates found to true so it wont create new BackupFiles
-					duplicatesFound = true;
-
-					// Finding duplicate tif Elements
-					if (!tifDuplicatesList.contains(tifElement)) {
-						logger.trace("Duplicate found that is not in list: " + tifElement);
-						tifDuplicatesList.add(tifElement);
-						logger.info("   " + tifElement);
-
-						// Find the ID values of the parent elements
-						List<String> fileIDValues = findIDValueOfDuplicateTifValues(rootElement, tifElement);
-
-						// Find the Phys values of the parent elements
-						for (int i = 0; i < fileIDValues.size(); i++) {
-							String FILEID = fileIDValues.get(i);
-							physIDValues.addAll(findIDValueOfDuplicateTifValues(rootElement, FILEID));
-						}
-
-						// Remove the first Object in the List so we dont delete it from the xml file
-						if (!fileIDValues.isEmpty()) {
-							fileIDValues.remove(0);
-						}
-						if (!physIDValues.isEmpty()) {
-							physIDValues.remove(0);
-						}
-						rewriteMetsDivAndFile(doc.getRootElement(), fileIDValues, physIDValues, xmlFile);
-
-						findAndRewritePHYSValuesOfDuplicateTifValues(doc.getRootElement(), physIDValues, xmlFile);
-
-						physIDValues.clear();
-						fileIDValues.clear();
-					}
-
-				}
-			}
-			if (duplicatesFound) {
-				filesWithDuplicates++;
-				totalDuplicates += tifDuplicatesList.size();
-				File directoryAbove = xmlFile.getParentFile();
-				parentDirectory.add(directoryAbove.getName());
-				recountingOrder(doc.getRootElement(), 0);
-				saveDocument(rootElement.getDocument(), xmlFile);
-				logger.info("Document changes saved");
-			}
+			return findDuplicates(tifElementsList, parseDocument(xmlFile), xmlFile);
 		} catch (JDOMException | IOException e) {
 			logger.error("Error processing XML file: " + xmlFile.getAbsolutePath(), e);
+			return false;
 		}
-		return duplicatesFound;
 	}
 
 	/**
-	 * Recursive method to find File ID Values and PHYS ID Values
+	 * Finds duplicates of tif attributes within an already parsed document, fixes
+	 * them and saves the document.
 	 *
-	 * @param element        The current XML element being checked.
-	 * @param duplicateValue The duplicate value to be checked in attributes.
-	 * @return List of ID values associated with the duplicate element.
+	 * @param tifElementsList List of tif elements.
+	 * @param doc             The parsed document of the XML file.
+	 * @param xmlFile         The XML file currently being processed.
+	 * @return True if duplicates are found, otherwise false.
 	 */
-	List<String> findIDValueOfDuplicateTifValues(Element element, String duplicateValue) {
+	boolean findDuplicates(List<String> tifElementsList, Document doc, File xmlFile) {
+		return fixDuplicates(tifElementsList, doc, xmlFile, null, null) > 0;
+	}
 
-		List<String> idValues = new ArrayList<>();
-		// Check if the element is not null
-		if (element != null) {
-			// Check attributes of the element
-			List<Attribute> attributes = element.getAttributes();
-			for (Attribute attribute : attributes) {
-				// Check if the attribute value matches the duplicate value
-				if (attribute.getValue().equals(duplicateValue)) {
-					// Log information about the duplicate element
-					Element parentElement = element.getParentElement();
-					if (parentElement != null) {
-						Attribute idAttribute = parentElement.getAttribute("ID");
-						if (idAttribute != null) {
-							String idValue = idAttribute.getValue();
-							logger.trace("ID=\"" + idValue + "\"");
-							idValues.add(idValue);
-							return idValues;
-						}
-					}
-				}
+	/**
+	 * Finds duplicates of tif attributes within an already parsed document, fixes
+	 * them and saves the document, recording the time of each stage.
+	 *
+	 * @param tifElementsList List of tif elements.
+	 * @param doc             The parsed document of the XML file.
+	 * @param xmlFile         The XML file currently being processed.
+	 * @param content         The content the document was parsed from, null to
+	 *                        read the file again for the backup.
+	 * @param fingerprint     Receives the state of the saved file, may be null.
+	 * @return The number of distinct duplicate hrefs, 0 if there are none, -1 if
+	 *         the undo journal or the fixed file could not be written.
+	 */
+	private int fixDuplicates(List<String> tifElementsList, Document doc, File xmlFile, FileContent content,
+			ScanManifest.Fingerprint fingerprint) {
+		logger.info(xmlFile.getAbsolutePath());
+		Element rootElement = doc.getRootElement();
+		long start = System.nanoTime();
+		DuplicateFixPlan plan = planDuplicates(tifElementsList, rootElement);
+		statistics.record(Stage.PLAN, System.nanoTime() - start, 0);
+		if (plan == null) {
+			return 0;
+		}
+
+		if (options.isDryRun()) {
+			// Only report what would be changed
+			countDuplicates(plan.getDuplicateHrefs().size());
+			if (report != null) {
+				report.write(xmlFile, plan);
 			}
+			return plan.getDuplicateHrefs().size();
+		}
 
-			// Check children of the element
-			List<Element> children = element.getChildren();
-			for (Element child : children) {
-				// Recursively check children
-				idValues.addAll(findIDValueOfDuplicateTifValues(child, duplicateValue));
+		UndoJournal.Changes changes = null;
+		if (undoJournal == null) {
+			createBackup(xmlFile, content);
+		} else {
+			try {
+				changes = content != null ? undoJournal.begin(content) : undoJournal.begin(xmlFile);
+			} catch (IOException e) {
+				logger.error("Error hashing " + xmlFile.getAbsolutePath() + " for the undo journal", e);
+				return -1;
 			}
 		}
-		return idValues;
-	}
 
-	/**
-	 * Finds values containing "PHYS_" based on the given XML element and the list
-	 * of ID values.
-	 * 
-	 * @param element     The XML element to explore.
-	 * @param allIDValues The list of ID values to check against "PHYS_" attributes.
-	 */
-	Boolean findAndRewritePHYSValuesOfDuplicateTifValues(Element element, List<String> physIDValues, File xmlFile) {
-		// Check attributes of the current element
-		List<Attribute> attributes = element.getAttributes();
-		Element parentElement = element.getParentElement();
-		boolean changesMade = false;
-		XMLOutputter xmlOutputter = new XMLOutputter(Format.getPrettyFormat());
-
-		// Output the element with its attributes
-		String elementString = xmlOutputter.outputString(element);
-
-		for (Attribute attribute : attributes) {
-			String attributeValue = attribute.getValue();
-			for (String physIDValue : physIDValues) {
-				// Check if the attribute value is equal the current ID value
-				if (attributeValue.contains(physIDValue)) {
-					if ("structLink".equals(parentElement.getName())) {
-						// logger.info("<mets:structLink> PHYS_" + idValue);
-						logger.trace("Element: " + elementString);
-						// Getting the Value that should be there
-						String newValue = physIDValues.get(0);
-						// Setting the Value
-						attribute.setValue(newValue);
-						changesMade = true;
-					} else {
-						logger.trace(physIDValue);
-					}
-				}
+		// Apply all removals and rewrites and recount the order in one pass
+		start = System.nanoTime();
+		plan.apply(rootElement, changes);
+		statistics.record(Stage.APPLY, System.nanoTime() - start, 0);
+
+		if (changes != null) {
+			// The way back has to be on disk before the original is replaced
+			start = System.nanoTime();
+			try {
+				undoJournal.writeAhead(changes);
+			} catch (IOException e) {
+				logger.error("Error writing undo journal, not saving " + xmlFile.getAbsolutePath(), e);
+				return -1;
 			}
+			statistics.record(Stage.BACKUP, System.nanoTime() - start, 0);
 		}
-		// Recursively explore child elements
-		List<Element> children = element.getChildren();
-		for (Element child : children) {
-			findAndRewritePHYSValuesOfDuplicateTifValues(child, physIDValues, xmlFile);
+
+		start = System.nanoTime();
+		if (!saveDocument(rootElement.getDocument(), xmlFile, fingerprint)) {
+			// The original is unchanged, it must not be recorded as fixed
+			return -1;
+		}
+		statistics.record(Stage.SAVE, System.nanoTime() - start, xmlFile.length());
+		countDuplicates(plan.getDuplicateHrefs().size());
+		if (changes != null) {
+			try {
+				undoJournal.commit(changes, xmlFile);
+			} catch (IOException e) {
+				logger.error("Error confirming " + xmlFile.getAbsolutePath() + " in the undo journal", e);
+			}
 		}
-		return changesMade;
+		logger.info("Document changes saved");
+		if (report != null) {
+			report.write(xmlFile, plan);
+		}
+		return plan.getDuplicateHrefs().size();
 	}
 
 	/**
-	 * Rewrites the metadata and file, removing elements from the provided element
-	 * if their ID attribute matches values from either of the given lists.
+	 * Counts a fixed file in the totals. Only files that were saved, or would be
+	 * saved in a dry run, are counted, so the totals match the report.
 	 *
-	 * @param element      The XML element to traverse and modify.
-	 * @param fileIDValues List of file ID values to match against.
-	 * @param physIDValues List of physical ID values to match against.
-	 * @param xmlFile      The XML file to rewrite after modifications.
-	 * @return True if the rewrite operation is successful.
+	 * @param duplicates The number of distinct duplicate hrefs of the file.
 	 */
-	boolean rewriteMetsDivAndFile(Element element, List<String> fileIDValues, List<String> physIDValues, File xmlFile) {
-		// Traverse the element to find elements to remove
-		List<Element> elementsToRemove = new ArrayList<>();
-		traverseElement(element, fileIDValues, physIDValues, elementsToRemove);
+	private void countDuplicates(int duplicates) {
+		filesWithDuplicates.increment();
+		totalDuplicates.add(duplicates);
+	}
 
-		// Remove elements from the document after traversal
-		for (Element e : elementsToRemove) {
-			e.removeContent(); // Remove all children of the element
-			e.getParentElement().removeContent(e); // Remove the element itself from its parent
+	/**
+	 * Generates the backup of a file with duplicates and records its timing.
+	 * Errors are logged, the file is fixed anyway.
+	 *
+	 * @param xmlFile The XML file currently being processed.
+	 * @param content The content of the file, null to read the file again.
+	 */
+	private void createBackup(File xmlFile, FileContent content) {
+		// Generate BackupFiles of the Files with duplicates tif values
+		long start = System.nanoTime();
+		try {
+			Path backup = generateBackupFile(xmlFile, content);
+			statistics.record(Stage.BACKUP, System.nanoTime() - start, backup.toFile().length());
+			logger.info("Backup created");
+		} catch (IOException e) {
+			logger.error("Error creating backup file for: " + xmlFile.getAbsolutePath(), e);
 		}
-		return true;
 	}
 
 	/**
-	 * Traverses the XML element recursively, adding elements to remove if their ID
-	 * attribute matches values from either of the given lists.
-	 *
-	 * @param element          The current XML element being traversed.
-	 * @param fileIDValues     List of file ID values to match against.
-	 * @param physIDValues     List of physical ID values to match against.
-	 * @param elementsToRemove List to store elements to be removed.
-	 * @return list of elements to be removed.
-	 */
-	List<Element> traverseElement(Element element, List<String> fileIDValues, List<String> physIDValues,
-			List<Element> elementsToRemove) {
-		// Get attributes of the current XML element
-		List<org.jdom2.Attribute> attributes = element.getAttributes();
-		// Iterate over each attribute
-		for (org.jdom2.Attribute attribute : attributes) {
-			// Check if the attribute name is 'ID'
-			if ("ID".equals(attribute.getName())) {
-				String value = attribute.getValue();
-				// Check if the value of the attribute is contained in either of the lists
-				if (fileIDValues.contains(value) || physIDValues.contains(value)) {
-					// Add the element to the list of elements to be removed
-					elementsToRemove.add(element);
-					break; // Break loop if found in either list
-				}
-			} else if ("to".equals(attribute.getName()) && "smLink".equals(element.getName())) {
-				String value = attribute.getValue();
-				if (physIDValues.contains(value)) {
-					// Add the element to the list of elements to be removed
-					elementsToRemove.add(element);
-					break; // Break loop if found in either list
+	 * Fixes a file with duplicate hrefs with the {@link StreamingMetsRewriter}
+	 * instead of a DOM.
+	 *
+	 * @param content     The content of the XML file currently being processed.
+	 * @param event       The event of the file, receives the number of duplicates.
+	 * @param fingerprint Receives the state of the saved file, may be null.
+	 * @return The outcome for the file.
+	 */
+	private FixStatus fixStreaming(FileContent content, FixFileEvent event, ScanManifest.Fingerprint fingerprint) {
+		File xmlFile = content.getFile();
+		long start = System.nanoTime();
+		StreamingMetsRewriter.Plan plan;
+		try {
+			plan = streamingRewriter.plan(content.newInputStream());
+		} catch (XMLStreamException e) {
+			logger.error("Error processing XML file: " + xmlFile.getAbsolutePath(), e);
+			return FixStatus.FAILED;
+		}
+		statistics.record(Stage.PLAN, System.nanoTime() - start, event.fileSize);
+		if (plan.isEmpty()) {
+			return FixStatus.CLEAN;
+		}
+
+		logger.info(xmlFile.getAbsolutePath());
+		for (String href : plan.getDuplicateHrefs()) {
+			logger.info("   " + href);
+		}
+		event.duplicates = plan.getDuplicateHrefs().size();
+		if (options.isDryRun()) {
+			countDuplicates(event.duplicates);
+			if (report != null) {
+				report.write(xmlFile, plan.getDuplicateHrefs(), plan.getRemovedIDs());
+			}
+			return FixStatus.FIXED;
+		}
+
+		createBackup(xmlFile, content);
+		// The second pass applies the changes while writing the new file
+		start = System.nanoTime();
+		if (!saveAtomically(xmlFile, fingerprint,
+				out -> streamingRewriter.rewrite(content.newInputStream(), plan, out))) {
+			// The original is unchanged, it must not be recorded as fixed
+			return FixStatus.FAILED;
+		}
+		statistics.record(Stage.SAVE, System.nanoTime() - start, xmlFile.length());
+		countDuplicates(event.duplicates);
+		logger.info("Document changes saved");
+		if (report != null) {
+			report.write(xmlFile, plan.getDuplicateHrefs(), plan.getRemovedIDs());
+		}
+		return FixStatus.FIXED;
+	}
+
+	/**
+	 * Finds duplicates of tif attributes and plans the changes that remove them,
+	 * without changing the document.
+	 *
+	 * @param tifElementsList List of tif elements.
+	 * @param rootElement     The root element of the document.
+	 * @return The changes for all duplicates, or null if there are none.
+	 */
+	DuplicateFixPlan planDuplicates(List<String> tifElementsList, Element rootElement) {
+		HrefTable tifValues = new HrefTable(tifElementsList.size());
+		// Changes for all duplicates, built on an index of the document with the first
+		// duplicate
+		DuplicateFixPlan plan = null;
+
+		// Adds every duplicate to the plan when it is seen for the second time
+		for (String tifElement : tifElementsList) {
+			if (tifValues.add(tifElement) == 2) {
+				if (plan == null) {
+					plan = new DuplicateFixPlan(new MetsIndex(rootElement));
 				}
+				// Finding duplicate tif Elements
+				logger.info("   " + tifElement);
+				plan.addDuplicate(tifElement);
 			}
 		}
+		return plan;
+	}
 
-		// Get children elements of the current XML element and Iterate over them
-		List<Element> children = new ArrayList<>(element.getChildren());
-		for (Element child : children) {
-			// Recursively traverse children elements
-			traverseElement(child, fileIDValues, physIDValues, elementsToRemove);
+	/**
+	 * Recursive method to find File ID Values and PHYS ID Values
+	 *
+	 * @param element        The current XML element being checked.
+	 * @param duplicateValue The duplicate value to be checked in attributes.
+	 * @return List of ID values associated with the duplicate element.
+	 */
+	List<String> findIDValueOfDuplicateTifValues(Element element, String duplicateValue) {
+		List<String> idValues = new ArrayList<>();
+		// Check if the element is not null
+		if (element != null) {
+			findIDValueOfDuplicateTifValues(element, duplicateValue, idValues);
 		}
-		// Return the list of elements to be removed
-		return elementsToRemove;
+		return idValues;
 	}
 
 	/**
-	 * Recounts the order attribute of each element recursively starting from the
-	 * provided order value.
+	 * Adds the ID of the parent of every element with the duplicate value. All
+	 * levels append to the same list.
 	 *
-	 * @param element    The XML element to start recounting order from.
-	 * @param orderValue The starting value for the order attribute.
-	 * @return The next available order value after recounting.
+	 * @param element        The current XML element being checked.
+	 * @param duplicateValue The duplicate value to be checked in attributes.
+	 * @param idValues       Receives the ID values.
 	 */
-	int recountingOrder(Element element, int orderValue) {
-		// Get all attributes of the current XML element
-		List<Attribute> attributes = element.getAttributes();
-		// Iterate over each attribute
-		for (Attribute attribute : attributes) {
-			// Check if the attribute is 'ORDER'
-			if ("ORDER".equals(attribute.getName())) {
-				orderValue++;
-				// Set the value of the 'ORDER' attribute to the current orderValue
-				attribute.setValue(Integer.toString(orderValue));
+	private static void findIDValueOfDuplicateTifValues(Element element, String duplicateValue,
+			List<String> idValues) {
+		// Check attributes of the element
+		for (Attribute attribute : element.getAttributes()) {
+			// Check if the attribute value matches the duplicate value
+			if (attribute.getValue().equals(duplicateValue)) {
+				// Log information about the duplicate element
+				Element parentElement = element.getParentElement();
+				String idValue = parentElement != null ? parentElement.getAttributeValue("ID") : null;
+				if (idValue != null) {
+					if (logger.isTraceEnabled()) {
+						logger.trace("ID=\"" + idValue + "\"");
+					}
+					idValues.add(idValue);
+					return;
+				}
 			}
 		}
 
-		// Get all child elements of the current XML element and going through them
-		// recursively
-		List<Element> children = element.getChildren();
-		for (Element child : children) {
-			orderValue = recountingOrder(child, orderValue);
+		// Recursively check children
+		for (Element child : element.getChildren()) {
+			findIDValueOfDuplicateTifValues(child, duplicateValue, idValues);
 		}
-		return orderValue;
 	}
 
 	/**
-	 * Saves the updated XML document to the specified file.
+	 * Saves the updated XML document to the specified file. The document is
+	 * written as UTF-8 to a temporary file in the same directory, forced to disk
+	 * and then moved over the original, so a crash never leaves a truncated file.
+	 * The new file keeps the owner, group and permissions of the original.
 	 *
 	 * @param document The updated XML document.
 	 * @param xmlFile  The file to save the XML document into.
 	 * @return True if the document is successfully saved, false otherwise.
 	 */
 	Boolean saveDocument(Document document, File xmlFile) {
-		try {
-			// Create a FileWriter to overwrite the XML file
-			FileWriter writer = new FileWriter(xmlFile);
+		return saveDocument(document, xmlFile, null);
+	}
 
-			// Output the updated XML document to the file
-			XMLOutputter xmlOutputter = new XMLOutputter(Format.getPrettyFormat());
+	/**
+	 * Saves the updated XML document like {@link #saveDocument(Document, File)}
+	 * and takes the fingerprint of the written bytes.
+	 *
+	 * @param document    The updated XML document.
+	 * @param xmlFile     The file to save the XML document into.
+	 * @param fingerprint Receives the state of the saved file, may be null.
+	 * @return True if the document is successfully saved, false otherwise.
+	 */
+	private boolean saveDocument(Document document, File xmlFile, ScanManifest.Fingerprint fingerprint) {
+		// Output the updated XML document to the temporary file
+		XMLOutputter xmlOutputter = new XMLOutputter(options.isCompactOutput() ? Format.getCompactFormat()
+				: Format.getPrettyFormat());
+		return saveAtomically(xmlFile, fingerprint, out -> {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), SAVE_BUFFER_SIZE);
 			xmlOutputter.output(document, writer);
+			writer.flush();
+		});
+	}
 
-			// Close the FileWriter
-			writer.close();
-		} catch (IOException e) {
+	/**
+	 * Writes the content of a file to a temporary file in the same directory,
+	 * forces it to disk and then moves it over the original. The owner, group and
+	 * permissions of the original are copied before the move.
+	 *
+	 * @param xmlFile     The file to replace.
+	 * @param fingerprint Receives the size, modification time and hash of the
+	 *                    written bytes once the file is replaced, may be null.
+	 * @param content     Writes the new content of the file.
+	 * @return True if the file is successfully replaced, false otherwise.
+	 */
+	private boolean saveAtomically(File xmlFile, ScanManifest.Fingerprint fingerprint, Content content) {
+		Path targetPath = xmlFile.toPath();
+		Path tempPath = null;
+		try {
+			tempPath = Files.createTempFile(targetPath.toAbsolutePath().getParent(), ".meta.xml.", ".tmp");
+			copyPermissions(targetPath, tempPath);
+
+			String hash = null;
+			try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+				MessageDigest digest = fingerprint != null ? ScanManifest.newDigest() : null;
+				OutputStream out = Channels.newOutputStream(channel);
+				// Not closed here, closing the stream would close the channel before force
+				content.writeTo(digest != null ? new DigestOutputStream(out, digest) : out);
+				channel.force(true);
+				if (digest != null) {
+					hash = ScanManifest.toHex(digest.digest());
+				}
+			}
+			// The move keeps the size and modification time of the written bytes
+			BasicFileAttributes written = fingerprint != null
+					? Files.readAttributes(tempPath, BasicFileAttributes.class)
+					: null;
+
+			// Replace the original in one step
+			try {
+				Files.move(tempPath, targetPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempPath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+			}
+			if (fingerprint != null) {
+				fingerprint.set(written.size(), written.lastModifiedTime().toMillis(), hash);
+			}
+		} catch (IOException | XMLStreamException e) {
 			logger.error("Error saving the XML file: " + e.getMessage());
 			return false;
+		} finally {
+			deleteQuietly(tempPath);
 		}
 		return true;
 	}
 
 	/**
-	 * Generates a backup file for the given XML file by creating a copy with a
-	 * timestamp in the filename.
+	 * The new content of a file saved by {@link FixForXmlFiles#saveAtomically}.
+	 */
+	private interface Content {
+		/**
+		 * Writes the content, the stream is closed by the caller.
+		 *
+		 * @param out The stream of the temporary file.
+		 * @throws IOException        If the content cannot be written.
+		 * @throws XMLStreamException If the content cannot be written as XML.
+		 */
+		void writeTo(OutputStream out) throws IOException, XMLStreamException;
+	}
+
+	/**
+	 * Copies the POSIX permissions, the owner and the group of the original file
+	 * to the temporary file, which is created by the running user and readable for
+	 * the owner only. The owner has to be kept because the moved file replaces the
+	 * original: a run as root must not take the files away from the Goobi user.
+	 * Missing rights to change the owner or the group are ignored.
+	 *
+	 * @param source The original file.
+	 * @param target The temporary file.
+	 * @throws IOException If the attributes cannot be read or the permissions
+	 *                     cannot be set.
+	 */
+	private void copyPermissions(Path source, Path target) throws IOException {
+		PosixFileAttributeView sourceView = Files.getFileAttributeView(source, PosixFileAttributeView.class);
+		PosixFileAttributeView targetView = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+		if (sourceView == null || targetView == null) {
+			return;
+		}
+		PosixFileAttributes attributes = sourceView.readAttributes();
+		targetView.setPermissions(attributes.permissions());
+		try {
+			// Only root can give a file to another user
+			Files.setOwner(target, attributes.owner());
+		} catch (FileSystemException e) {
+			logger.warn("Cannot keep the owner " + attributes.owner().getName() + " of " + source + ": "
+					+ e.getMessage());
+		}
+		try {
+			targetView.setGroup(attributes.group());
+		} catch (FileSystemException e) {
+			logger.trace("Cannot copy the group of " + source, e);
+		}
+	}
+
+	/**
+	 * Deletes a leftover temporary file.
+	 *
+	 * @param path The file to delete, may be null.
+	 */
+	private void deleteQuietly(Path path) {
+		if (path != null) {
+			try {
+				Files.deleteIfExists(path);
+			} catch (IOException e) {
+				logger.warn("Cannot delete temporary file " + path + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Generates a backup file for the given XML file with a timestamp in the
+	 * filename. Depending on the backup strategy the backup is a copy, a hard link
+	 * to the original or a gzip compressed copy.
 	 *
 	 * @param xmlFile The File object representing the XML file to be backed up.
+	 * @return The path of the backup file.
 	 * @throws IOException If an I/O error occurs during the file reading or writing
 	 *                     process.
 	 */
 	Path generateBackupFile(File xmlFile) throws IOException {
+		return generateBackupFile(xmlFile, null);
+	}
+
+	/**
+	 * Generates the backup of a file like {@link #generateBackupFile(File)}, copies
+	 * are written from the content that was already read instead of reading the
+	 * file again.
+	 *
+	 * @param xmlFile The XML file to be backed up.
+	 * @param content The content of the file, null to read the file.
+	 * @return The path of the backup file.
+	 * @throws IOException If an I/O error occurs during the file reading or writing
+	 *                     process.
+	 */
+	Path generateBackupFile(File xmlFile, FileContent content) throws IOException {
 		LocalDateTime currentTime = LocalDateTime.now();
 		DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd-HHmmssSSS");
 
 		// Name of the backupfile
 		String backupFileName = "meta.xml." + currentTime.format(formatter) + ".before-mets-fix";
+		BackupStrategy strategy = options.getBackupStrategy();
+		if (strategy == BackupStrategy.GZIP) {
+			backupFileName += ".gz";
+		}
 
 		// Creating a backupfile in the same directory
 		File backupFile = new File(xmlFile.getParentFile(), backupFileName);
@@ -488,7 +1170,49 @@ public class FixForXmlFiles {
 
 		logger.trace(sourcePath);
 		logger.trace(destinationPath);
-		return Files.copy(sourcePath, destinationPath, StandardCopyOption.COPY_ATTRIBUTES);
+		switch (strategy) {
+		case HARDLINK:
+			try {
+				return Files.createLink(destinationPath, sourcePath);
+			} catch (UnsupportedOperationException | IOException e) {
+				// e.g. file systems without hard links, fall back to a copy
+				logger.warn("Cannot create hard link " + destinationPath + ", copying instead: " + e);
+				return copyFile(sourcePath, destinationPath, content);
+			}
+		case GZIP:
+			try (OutputStream out = new GZIPOutputStream(
+					Files.newOutputStream(destinationPath, StandardOpenOption.CREATE_NEW), SAVE_BUFFER_SIZE)) {
+				if (content != null) {
+					content.writeTo(out);
+				} else {
+					Files.copy(sourcePath, out);
+				}
+			}
+			return destinationPath;
+		default:
+			return copyFile(sourcePath, destinationPath, content);
+		}
+	}
 
+	/**
+	 * Copies a file with its permissions and modification time.
+	 *
+	 * @param sourcePath      The file to copy.
+	 * @param destinationPath The copy, must not exist.
+	 * @param content         The content of the file, null to read the file.
+	 * @return The path of the copy.
+	 * @throws IOException If the file cannot be read or the copy cannot be
+	 *                     written.
+	 */
+	private Path copyFile(Path sourcePath, Path destinationPath, FileContent content) throws IOException {
+		if (content == null) {
+			return Files.copy(sourcePath, destinationPath, StandardCopyOption.COPY_ATTRIBUTES);
+		}
+		try (OutputStream out = Files.newOutputStream(destinationPath, StandardOpenOption.CREATE_NEW)) {
+			content.writeTo(out);
+		}
+		copyPermissions(sourcePath, destinationPath);
+		Files.setLastModifiedTime(destinationPath, Files.getLastModifiedTime(sourcePath));
+		return destinationPath;
 	}
 }
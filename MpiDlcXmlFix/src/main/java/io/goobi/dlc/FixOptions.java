@@ -0,0 +1,300 @@
+package io.goobi.dlc;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Command line options of {@link FixForXmlFiles}.
+ *
+ * <pre>
+ * FixForXmlFiles [--threads N] [--manifest FILE] [--compact]
+ *                [--backup copy|hardlink|gzip] [--dry-run] [--report FILE|-]
+ *                [--engine dom|stream] [--heap-budget-mb N]
+ *                [--journal FILE [--resume]] [--shard i/n] [--summary FILE]
+ *                [--undo-journal FILE] [--watch [--debounce-ms N]]
+ *                [--ids FILE|-] &lt;directory&gt;
+ * </pre>
+ *
+ * <p>
+ * A sharded run keeps the manifest entries of the other shards. Runs of several
+ * shards at the same time need one manifest per shard, otherwise the last run
+ * to finish overwrites the entries of the others.
+ * </p>
+ */
+class FixOptions {
+	private File directory;
+	private int threads = 1;
+	private Path manifest;
+	private boolean compactOutput;
+	private BackupStrategy backupStrategy = BackupStrategy.COPY;
+	private boolean dryRun;
+	private Path report;
+	private FixEngine engine = FixEngine.DOM;
+	// Heap for DOMs processed at the same time, 0 for no limit
+	private long heapBudget;
+	private Path journal;
+	private boolean resume;
+	// Part of the repository processed by this host, null for all of it
+	private Shard shard;
+	private Path summary;
+	// Records the changes instead of backing up the fixed files
+	private Path undoJournal;
+	// Keeps running and fixes the files written below the directory
+	private boolean watch;
+	private int debounceMillis = 2000;
+	// List of the processes to fix instead of walking the directory
+	private Path ids;
+
+	/**
+	 * Parses the command line arguments.
+	 *
+	 * @param args The arguments passed to main.
+	 * @return The parsed options.
+	 * @throws IllegalArgumentException If the arguments are invalid.
+	 */
+	static FixOptions parse(String[] args) {
+		FixOptions options = new FixOptions();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ("--threads".equals(arg)) {
+				options.threads = parsePositiveInt(arg, valueOf(args, ++i, arg));
+			} else if ("--manifest".equals(arg)) {
+				options.manifest = Paths.get(valueOf(args, ++i, arg)).toAbsolutePath();
+			} else if ("--compact".equals(arg)) {
+				options.compactOutput = true;
+			} else if ("--backup".equals(arg)) {
+				options.backupStrategy = BackupStrategy.fromOption(valueOf(args, ++i, arg));
+			} else if ("--dry-run".equals(arg)) {
+				options.dryRun = true;
+			} else if ("--report".equals(arg)) {
+				// "-" stands for standard output and is kept as it is
+				options.report = Paths.get(valueOf(args, ++i, arg));
+			} else if ("--engine".equals(arg)) {
+				options.engine = FixEngine.fromOption(valueOf(args, ++i, arg));
+			} else if ("--heap-budget-mb".equals(arg)) {
+				options.heapBudget = parsePositiveInt(arg, valueOf(args, ++i, arg)) * 1024L * 1024L;
+			} else if ("--journal".equals(arg)) {
+				options.journal = Paths.get(valueOf(args, ++i, arg)).toAbsolutePath();
+			} else if ("--resume".equals(arg)) {
+				options.resume = true;
+			} else if ("--shard".equals(arg)) {
+				options.shard = Shard.parse(valueOf(args, ++i, arg));
+			} else if ("--summary".equals(arg)) {
+				options.summary = Paths.get(valueOf(args, ++i, arg)).toAbsolutePath();
+			} else if ("--undo-journal".equals(arg)) {
+				options.undoJournal = Paths.get(valueOf(args, ++i, arg)).toAbsolutePath();
+			} else if ("--watch".equals(arg)) {
+				options.watch = true;
+			} else if ("--debounce-ms".equals(arg)) {
+				options.debounceMillis = parsePositiveInt(arg, valueOf(args, ++i, arg));
+			} else if ("--ids".equals(arg)) {
+				// "-" stands for standard input and is kept as it is
+				options.ids = Paths.get(valueOf(args, ++i, arg));
+			} else if (arg.startsWith("--")) {
+				throw new IllegalArgumentException("Unknown option: " + arg);
+			} else if (options.directory == null) {
+				options.directory = new File(arg).getAbsoluteFile();
+			} else {
+				throw new IllegalArgumentException("Please specify only one directory.");
+			}
+		}
+		if (options.directory == null) {
+			throw new IllegalArgumentException("Please specify only one directory.");
+		}
+		if (options.resume && options.journal == null) {
+			throw new IllegalArgumentException("--resume needs a --journal to resume from.");
+		}
+		if (options.journal != null && options.dryRun) {
+			// A later run resuming from the journal would skip files that were never fixed
+			throw new IllegalArgumentException("--journal cannot be used with --dry-run.");
+		}
+		if (options.watch && options.manifest != null) {
+			throw new IllegalArgumentException("--manifest cannot be used with --watch.");
+		}
+		if (options.watch && options.journal != null) {
+			// A re-imported process completed by an earlier run would be skipped forever
+			throw new IllegalArgumentException("--journal cannot be used with --watch.");
+		}
+		if (options.ids != null && (options.watch || options.manifest != null)) {
+			throw new IllegalArgumentException("--ids cannot be used with --watch or --manifest.");
+		}
+		if (options.undoJournal != null && options.engine != FixEngine.DOM) {
+			throw new IllegalArgumentException("--undo-journal is only supported by --engine dom.");
+		}
+		return options;
+	}
+
+	/**
+	 * Creates the default options with the given number of threads.
+	 *
+	 * @param threads The number of files processed concurrently.
+	 * @return The options.
+	 */
+	static FixOptions withThreads(int threads) {
+		FixOptions options = new FixOptions();
+		options.threads = Math.max(1, threads);
+		return options;
+	}
+
+	/**
+	 * Returns the value following an option.
+	 *
+	 * @param args   The arguments passed to main.
+	 * @param index  The index of the value.
+	 * @param option The name of the option, used for the error message.
+	 * @return The value of the option.
+	 */
+	private static String valueOf(String[] args, int index, String option) {
+		if (index >= args.length) {
+			throw new IllegalArgumentException("Missing value for " + option);
+		}
+		return args[index];
+	}
+
+	/**
+	 * Parses a positive number.
+	 *
+	 * @param option The name of the option, used for the error message.
+	 * @param value  The value to parse.
+	 * @return The parsed number.
+	 */
+	private static int parsePositiveInt(String option, String value) {
+		try {
+			int number = Integer.parseInt(value);
+			if (number > 0) {
+				return number;
+			}
+		} catch (NumberFormatException e) {
+			// Handled below
+		}
+		throw new IllegalArgumentException(option + " expects a positive number: " + value);
+	}
+
+	/**
+	 * @return The directory to process.
+	 */
+	File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return The number of files processed concurrently.
+	 */
+	int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @return The scan manifest for incremental runs, or null if not used.
+	 */
+	Path getManifest() {
+		return manifest;
+	}
+
+	/**
+	 * @return True if fixed files are saved without indentation.
+	 */
+	boolean isCompactOutput() {
+		return compactOutput;
+	}
+
+	/**
+	 * @return How the original of a fixed file is kept.
+	 */
+	BackupStrategy getBackupStrategy() {
+		return backupStrategy;
+	}
+
+	/**
+	 * @return True if files are only analysed, without backups and saves.
+	 */
+	boolean isDryRun() {
+		return dryRun;
+	}
+
+	/**
+	 * @return The JSON lines report of the files with duplicates, or null if not
+	 *         written.
+	 */
+	Path getReport() {
+		return report;
+	}
+
+	/**
+	 * @return How files with duplicates are rewritten.
+	 */
+	FixEngine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * @return The heap in bytes for the files with duplicates processed at the
+	 *         same time, 0 if not limited. It never admits more files than
+	 *         {@link #getThreads()}.
+	 */
+	long getHeapBudget() {
+		return heapBudget;
+	}
+
+	/**
+	 * @return The journal of completed files, or null if not kept.
+	 */
+	Path getJournal() {
+		return journal;
+	}
+
+	/**
+	 * @return True if the files completed according to the journal are skipped.
+	 */
+	boolean isResume() {
+		return resume;
+	}
+
+	/**
+	 * @return The part of the repository to process, or null for all of it.
+	 */
+	Shard getShard() {
+		return shard;
+	}
+
+	/**
+	 * @return The summary file for {@link MergeShardSummaries}, or null if not
+	 *         written.
+	 */
+	Path getSummary() {
+		return summary;
+	}
+
+	/**
+	 * @return The journal recording the changes for {@link UndoFix}, or null if
+	 *         backups are created.
+	 */
+	Path getUndoJournal() {
+		return undoJournal;
+	}
+
+	/**
+	 * @return True if the directory is watched for new and changed files instead
+	 *         of being processed once.
+	 */
+	boolean isWatch() {
+		return watch;
+	}
+
+	/**
+	 * @return How long a changed file has to stay unchanged before it is fixed,
+	 *         in milliseconds.
+	 */
+	int getDebounceMillis() {
+		return debounceMillis;
+	}
+
+	/**
+	 * @return The list of process IDs or paths to fix, "-" for standard input, or
+	 *         null to walk the directory.
+	 */
+	Path getIds() {
+		return ids;
+	}
+}
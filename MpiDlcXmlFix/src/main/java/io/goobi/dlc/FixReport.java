@@ -0,0 +1,156 @@
+package io.goobi.dlc;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Machine readable report of the files with duplicates. Every affected file is
+ * written as one JSON line as soon as it is analysed, so the report of a large
+ * run never has to be kept in memory:
+ *
+ * <pre>
+ * {"process":"185447","path":"/data/185447/meta.xml","duplicates":["00000037.tif"],"removedIds":["FILE_0057","PHYS_0057"]}
+ * </pre>
+ */
+class FixReport implements Closeable {
+	private static final Logger logger = LogManager.getLogger(FixReport.class);
+
+	private static final String STANDARD_OUTPUT = "-";
+
+	private final Writer writer;
+	// Standard output stays open for the log
+	private final boolean closeWriter;
+
+	/**
+	 * Opens the report file, an existing file is replaced.
+	 *
+	 * @param reportFile The report file, "-" writes to standard output.
+	 * @throws IOException If the file cannot be created.
+	 */
+	FixReport(Path reportFile) throws IOException {
+		this(STANDARD_OUTPUT.equals(reportFile.toString())
+				? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+				: Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8),
+				!STANDARD_OUTPUT.equals(reportFile.toString()));
+	}
+
+	/**
+	 * Creates a report that writes to the given writer.
+	 *
+	 * @param writer The writer receiving the JSON lines.
+	 */
+	FixReport(Writer writer) {
+		this(writer, true);
+	}
+
+	/**
+	 * Creates a report that writes to the given writer.
+	 *
+	 * @param writer      The writer receiving the JSON lines.
+	 * @param closeWriter False if the writer must stay open after the report.
+	 */
+	private FixReport(Writer writer, boolean closeWriter) {
+		this.writer = writer;
+		this.closeWriter = closeWriter;
+	}
+
+	/**
+	 * Writes the line of one file with duplicates. Called concurrently by the
+	 * worker threads, every line is flushed so the report can be followed while
+	 * the run is still going.
+	 *
+	 * @param xmlFile The meta.xml with duplicates.
+	 * @param plan    The changes for the duplicates of the file.
+	 */
+	void write(File xmlFile, DuplicateFixPlan plan) {
+		write(xmlFile, plan.getDuplicateHrefs(), plan.getRemovedIDs());
+	}
+
+	/**
+	 * Writes the line of one file with duplicates.
+	 *
+	 * @param xmlFile        The meta.xml with duplicates.
+	 * @param duplicateHrefs The duplicate hrefs of the file.
+	 * @param removedIDs     The IDs of the elements that are removed.
+	 */
+	void write(File xmlFile, List<String> duplicateHrefs, List<String> removedIDs) {
+		StringBuilder line = new StringBuilder(256);
+		line.append("{\"process\":");
+		appendString(line, xmlFile.getAbsoluteFile().getParentFile().getName());
+		line.append(",\"path\":");
+		appendString(line, xmlFile.getAbsolutePath());
+		line.append(",\"duplicates\":");
+		appendArray(line, duplicateHrefs);
+		line.append(",\"removedIds\":");
+		appendArray(line, removedIDs);
+		line.append("}\n");
+		synchronized (writer) {
+			try {
+				writer.write(line.toString());
+				writer.flush();
+			} catch (IOException e) {
+				logger.error("Error writing report line for " + xmlFile.getAbsolutePath() + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Appends a JSON array of strings.
+	 *
+	 * @param json   The line being built.
+	 * @param values The strings of the array.
+	 */
+	private static void appendArray(StringBuilder json, List<String> values) {
+		json.append('[');
+		for (int i = 0; i < values.size(); i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			appendString(json, values.get(i));
+		}
+		json.append(']');
+	}
+
+	/**
+	 * Appends a quoted and escaped JSON string.
+	 *
+	 * @param json  The line being built.
+	 * @param value The string to append.
+	 */
+	static void appendString(StringBuilder json, String value) {
+		json.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			} else if (c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+		json.append('"');
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (writer) {
+			if (closeWriter) {
+				writer.close();
+			} else {
+				writer.flush();
+			}
+		}
+	}
+}
@@ -0,0 +1,274 @@
+package io.goobi.dlc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs {@link FixForXmlFiles#fixXmlFile(File)} for many files, either on the
+ * calling thread or concurrently on a fixed number of worker threads. Files are
+ * handed to the workers through a bounded queue while they are still being
+ * discovered. The folder names of fixed files are collected in discovery order,
+ * so the Goobi filter query is the same no matter how many threads are used.
+ */
+class FixRunner {
+	private static final Logger logger = LogManager.getLogger(FixRunner.class);
+	// Number of queued files per worker before discovery has to wait
+	private static final int QUEUE_CAPACITY_PER_THREAD = 64;
+	// Tells a worker that no more files will follow
+	private static final Task END_OF_FILES = new Task(-1, null);
+
+	private final FixForXmlFiles fixer;
+	private final int threads;
+	// Parent directory names of files with duplicates, keyed by discovery position
+	private final ConcurrentSkipListMap<Integer, String> folders = new ConcurrentSkipListMap<>();
+	private final List<FixListener> listeners = new CopyOnWriteArrayList<>();
+	private boolean fingerprints = false;
+
+	/**
+	 * Source of the files to process, e.g. a directory walk.
+	 */
+	interface FileSource {
+		/**
+		 * Passes every file to the consumer.
+		 *
+		 * @param consumer Receives the files in a stable order.
+		 * @throws IOException If the files cannot be listed.
+		 */
+		void forEach(Consumer<File> consumer) throws IOException;
+	}
+
+	/**
+	 * Gets notified after each file, e.g. to record it in the scan manifest.
+	 * Listeners are called concurrently by the worker threads.
+	 */
+	interface FixListener {
+		/**
+		 * Called after a file was processed.
+		 *
+		 * @param file        The processed meta.xml.
+		 * @param status      The outcome for the file.
+		 * @param fingerprint The state of the bytes that were checked or written,
+		 *                    null if none was taken.
+		 */
+		void fileProcessed(File file, FixStatus status, ScanManifest.Fingerprint fingerprint);
+	}
+
+	/**
+	 * Creates a runner for the given fixer.
+	 *
+	 * @param fixer   The fixer processing a single file, must be thread safe.
+	 * @param threads The number of files processed concurrently.
+	 */
+	FixRunner(FixForXmlFiles fixer, int threads) {
+		this.fixer = fixer;
+		this.threads = threads;
+	}
+
+	/**
+	 * Adds a listener that is notified after each file.
+	 *
+	 * @param listener The listener to add.
+	 */
+	void addListener(FixListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Lets the fixer take the fingerprint of every clean or saved file for the
+	 * listeners, e.g. for the scan manifest.
+	 *
+	 * @param fingerprints True to take fingerprints, false to pass null.
+	 */
+	void setFingerprints(boolean fingerprints) {
+		this.fingerprints = fingerprints;
+	}
+
+	/**
+	 * Fixes all given files and waits until they are done.
+	 *
+	 * @param files The meta.xml files to process.
+	 * @return The parent directory names of the files with duplicates, in the
+	 *         order of the given list.
+	 */
+	List<String> run(List<File> files) {
+		try {
+			return run(files::forEach);
+		} catch (IOException e) {
+			// Iterating over a list does not throw
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Fixes all files of the source and waits until they are done. With more than
+	 * one thread the source is read on the calling thread while the workers are
+	 * already fixing the files found so far.
+	 *
+	 * @param source The source of the meta.xml files, e.g.
+	 *               {@link MetaXmlDiscoverer#discover(Consumer)}.
+	 * @return The parent directory names of the files with duplicates, in the
+	 *         order of the source.
+	 * @throws IOException If the source cannot be read.
+	 */
+	List<String> run(FileSource source) throws IOException {
+		AtomicInteger position = new AtomicInteger();
+		// Files the source still returned after the run was interrupted
+		AtomicInteger skipped = new AtomicInteger();
+		if (threads <= 1) {
+			source.forEach(file -> {
+				if (Thread.currentThread().isInterrupted()) {
+					skipped.incrementAndGet();
+				} else {
+					processFile(position.getAndIncrement(), file);
+				}
+			});
+		} else {
+			BlockingQueue<Task> queue = new ArrayBlockingQueue<>(threads * QUEUE_CAPACITY_PER_THREAD);
+			ExecutorService executor = Executors.newFixedThreadPool(threads, new WorkerThreadFactory());
+			for (int i = 0; i < threads; i++) {
+				executor.execute(() -> consume(queue));
+			}
+			try {
+				source.forEach(file -> {
+					if (Thread.currentThread().isInterrupted()
+							|| !enqueue(queue, new Task(position.getAndIncrement(), file))) {
+						skipped.incrementAndGet();
+					}
+				});
+			} finally {
+				for (int i = 0; i < threads; i++) {
+					enqueue(queue, END_OF_FILES);
+				}
+				shutdownAndWait(executor);
+			}
+		}
+		if (skipped.get() > 0) {
+			logger.warn("Run interrupted, " + skipped.get() + " files were not processed");
+		}
+		return new ArrayList<>(folders.values());
+	}
+
+	/**
+	 * Puts a task into the queue, waiting while the workers are busy.
+	 *
+	 * @param queue The queue of the workers.
+	 * @param task  The task to add.
+	 * @return True if the task was added, false if the waiting thread was
+	 *         interrupted.
+	 */
+	private boolean enqueue(BlockingQueue<Task> queue, Task task) {
+		try {
+			queue.put(task);
+			return true;
+		} catch (InterruptedException e) {
+			// The discovery checks the flag and stops
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Worker loop, fixes files from the queue until the end marker arrives.
+	 *
+	 * @param queue The queue filled by the discovery.
+	 */
+	private void consume(BlockingQueue<Task> queue) {
+		try {
+			Task task = queue.take();
+			while (task != END_OF_FILES) {
+				processFile(task.position, task.file);
+				task = queue.take();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Fixes a single file and records its folder if duplicates were found.
+	 *
+	 * @param position The position of the file in the input.
+	 * @param file     The meta.xml to fix.
+	 */
+	private void processFile(int position, File file) {
+		ScanManifest.Fingerprint fingerprint = fingerprints ? new ScanManifest.Fingerprint() : null;
+		FixStatus status;
+		try {
+			status = fixer.fix(file, fingerprint);
+			if (status == FixStatus.FIXED) {
+				folders.put(position, file.getParentFile().getName());
+			}
+		} catch (Throwable e) {
+			// One broken file must not stop the workers, e.g. a StackOverflowError of
+			// a deeply nested document, a dead worker would block the discovery
+			logger.error("Error processing XML file: " + file.getAbsolutePath(), e);
+			status = FixStatus.FAILED;
+		}
+		if (fingerprint != null && !fingerprint.isSet()) {
+			fingerprint = null;
+		}
+		for (FixListener listener : listeners) {
+			listener.fileProcessed(file, status, fingerprint);
+		}
+	}
+
+	/**
+	 * Waits for all workers. If the waiting thread is interrupted the workers are
+	 * interrupted as well.
+	 *
+	 * @param executor The executor running the workers.
+	 */
+	private void shutdownAndWait(ExecutorService executor) {
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				logger.trace("Waiting for workers to finish");
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * A file together with its position in the discovery order.
+	 */
+	private static class Task {
+		private final int position;
+		private final File file;
+
+		Task(int position, File file) {
+			this.position = position;
+			this.file = file;
+		}
+	}
+
+	/**
+	 * Creates named daemon worker threads so they show up in the log.
+	 */
+	private static class WorkerThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "fixer-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
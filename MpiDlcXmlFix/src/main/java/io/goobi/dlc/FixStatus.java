@@ -0,0 +1,13 @@
+package io.goobi.dlc;
+
+/**
+ * Outcome of processing a single meta.xml.
+ */
+enum FixStatus {
+	/** The file has no duplicate hrefs and was not changed. */
+	CLEAN,
+	/** Duplicates were found and the file was fixed. */
+	FIXED,
+	/** The file could not be read or parsed. */
+	FAILED
+}
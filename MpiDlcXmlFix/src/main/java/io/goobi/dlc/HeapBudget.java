@@ -0,0 +1,122 @@
+package io.goobi.dlc;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the heap used by the files with duplicates that are processed at the
+ * same time. The footprint of a file is estimated from its size: the DOM for
+ * the DOM engine, the content held in memory for the streaming engine. A worker
+ * has to reserve it right after the pre-scan, before the content is read any
+ * further, and gives it back after saving. A huge file waits until enough of
+ * the budget is free.
+ *
+ * <p>
+ * The budget only admits files to the workers of the run, so at most
+ * {@code --threads} files are processed at the same time. It lowers the
+ * concurrency for large files but never raises it for small ones. The buffer
+ * of one read that every worker keeps, {@link FileContent#READ_SIZE}, and the
+ * bytes read by the pre-scan are not part of the budget.
+ * </p>
+ *
+ * <p>
+ * The reservations are fair, so a large file is not starved by a stream of
+ * small ones. A file that is larger than the whole budget is admitted alone.
+ * </p>
+ */
+class HeapBudget {
+	// A JDOM tree of a meta.xml retains about six times the file size, the rest
+	// covers the index, the plan and the serialization buffers
+	static final int DOM_BYTES_PER_FILE_BYTE = 8;
+	// The content of a file grows its buffer by doubling
+	static final int CONTENT_BYTES_PER_FILE_BYTE = 2;
+	// Reservations are counted in KiB so a budget of terabytes fits into an int
+	private static final int UNIT = 1024;
+
+	private final int permits;
+	private final Semaphore semaphore;
+
+	/**
+	 * Creates a budget of the given size.
+	 *
+	 * @param budgetBytes The heap available for DOMs in bytes.
+	 */
+	HeapBudget(long budgetBytes) {
+		this.permits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budgetBytes / UNIT));
+		this.semaphore = new Semaphore(permits, true);
+	}
+
+	/**
+	 * Estimates the heap needed for the DOM of a file.
+	 *
+	 * @param fileSize The size of the file in bytes.
+	 * @return The estimated footprint in bytes.
+	 */
+	static long estimate(long fileSize) {
+		return fileSize * DOM_BYTES_PER_FILE_BYTE;
+	}
+
+	/**
+	 * Estimates the heap needed to fix a file with the given engine.
+	 *
+	 * @param fileSize The size of the file in bytes.
+	 * @param engine   The engine fixing the file.
+	 * @return The estimated footprint in bytes.
+	 */
+	static long estimate(long fileSize, FixEngine engine) {
+		return engine == FixEngine.STREAM ? fileSize * CONTENT_BYTES_PER_FILE_BYTE : estimate(fileSize);
+	}
+
+	/**
+	 * Reserves the estimated footprint of the DOM of a file, waiting until it fits
+	 * into the budget.
+	 *
+	 * @param fileSize The size of the file in bytes.
+	 * @return The reservation, to be passed to {@link #release(int)}.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	int acquire(long fileSize) throws InterruptedException {
+		return acquire(fileSize, FixEngine.DOM);
+	}
+
+	/**
+	 * Reserves the estimated footprint of a file fixed with the given engine,
+	 * waiting until it fits into the budget.
+	 *
+	 * @param fileSize The size of the file in bytes.
+	 * @param engine   The engine fixing the file.
+	 * @return The reservation, to be passed to {@link #release(int)}.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	int acquire(long fileSize, FixEngine engine) throws InterruptedException {
+		int reservation = toPermits(estimate(fileSize, engine));
+		semaphore.acquire(reservation);
+		return reservation;
+	}
+
+	/**
+	 * Gives a reservation back to the budget.
+	 *
+	 * @param reservation The value returned by {@link #acquire(long, FixEngine)}.
+	 */
+	void release(int reservation) {
+		semaphore.release(reservation);
+	}
+
+	/**
+	 * @return The part of the budget that is not reserved, in bytes.
+	 */
+	long getAvailableBytes() {
+		return (long) semaphore.availablePermits() * UNIT;
+	}
+
+	/**
+	 * Converts bytes to permits, capped at the whole budget so huge files can
+	 * still be admitted alone.
+	 *
+	 * @param bytes The bytes to reserve.
+	 * @return The number of permits, at least one.
+	 */
+	private int toPermits(long bytes) {
+		return (int) Math.max(1, Math.min(permits, (bytes + UNIT - 1) / UNIT));
+	}
+}
@@ -0,0 +1,86 @@
+package io.goobi.dlc;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming detection stage that checks a meta.xml for duplicate hrefs without
+ * building a DOM. Only the xlink:href attributes are read and the scan stops at
+ * the end of the mets:fileSec, so clean files are rejected cheaply before the
+ * full JDOM based fix.
+ */
+class HrefPreScanner {
+	// One factory per thread, the JDK factory does not promise thread safety
+	private static final ThreadLocal<XMLInputFactory> inputFactories = ThreadLocal
+			.withInitial(HrefPreScanner::createInputFactory);
+	// One table per thread, reused for every file
+	private static final ThreadLocal<HrefTable> hrefTables = ThreadLocal.withInitial(() -> new HrefTable(1024));
+
+	/**
+	 * Creates the StAX factory used by the scans. It neither reads DTDs nor
+	 * resolves external entities.
+	 *
+	 * @return The configured input factory.
+	 */
+	static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+		return factory;
+	}
+
+	/**
+	 * Checks whether the given file contains at least one href twice.
+	 *
+	 * @param xmlFile The meta.xml to scan.
+	 * @return True if a duplicate href was found, otherwise false.
+	 * @throws IOException        If the file cannot be read.
+	 * @throws XMLStreamException If the file is not well-formed XML.
+	 */
+	boolean hasDuplicateHrefs(File xmlFile) throws IOException, XMLStreamException {
+		try (InputStream in = new BufferedInputStream(new FileInputStream(xmlFile), 64 * 1024)) {
+			return hasDuplicateHrefs(in);
+		}
+	}
+
+	/**
+	 * Checks whether the given stream contains at least one href twice.
+	 *
+	 * @param in The XML content to scan.
+	 * @return True if a duplicate href was found, otherwise false.
+	 * @throws XMLStreamException If the content is not well-formed XML.
+	 */
+	boolean hasDuplicateHrefs(InputStream in) throws XMLStreamException {
+		HrefTable hrefs = hrefTables.get();
+		hrefs.clear();
+		XMLStreamReader reader = inputFactories.get().createXMLStreamReader(in);
+		try {
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					for (int i = 0; i < reader.getAttributeCount(); i++) {
+						// Returns as soon as the first href is found a second time
+						if ("href".equals(reader.getAttributeLocalName(i)) && hrefs.add(reader.getAttributeValue(i)) > 1) {
+							return true;
+						}
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT && "fileSec".equals(reader.getLocalName())) {
+					// All mets:FLocat elements have been seen
+					return false;
+				}
+			}
+			return false;
+		} finally {
+			reader.close();
+		}
+	}
+}
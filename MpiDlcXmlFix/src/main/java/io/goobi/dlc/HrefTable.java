@@ -0,0 +1,143 @@
+package io.goobi.dlc;
+
+import java.util.Arrays;
+
+/**
+ * Counts how often each href occurs in a document. The hrefs are kept in an
+ * open addressing table with linear probing, so adding an href costs no
+ * allocation once the table has grown to the size of the document, and
+ * finding the duplicates of a document is a single linear pass.
+ *
+ * <p>
+ * The keys are the strings the parser already created, their cached
+ * {@link String#hashCode()} is spread with a multiplicative hash so the
+ * consecutive page numbers of a METS file do not form long probe runs. A
+ * table can be cleared and reused for the next document.
+ * </p>
+ */
+class HrefTable {
+	// Smallest number of slots, the table is kept at most half full
+	private static final int MIN_CAPACITY = 64;
+
+	private String[] keys;
+	private int[] counts;
+	private int size;
+	private int shift;
+
+	/**
+	 * Creates a table for the given number of hrefs.
+	 *
+	 * @param expectedHrefs The number of distinct hrefs expected, the table
+	 *                      grows if there are more.
+	 */
+	HrefTable(int expectedHrefs) {
+		allocate(capacityFor(expectedHrefs));
+	}
+
+	/**
+	 * Counts one occurrence of an href.
+	 *
+	 * @param href The href value.
+	 * @return How often the href was added so far including this time, 2 for its
+	 *         first duplicate.
+	 */
+	int add(String href) {
+		int slot = slotOf(href);
+		while (keys[slot] != null) {
+			if (keys[slot].equals(href)) {
+				return ++counts[slot];
+			}
+			slot = (slot + 1) & (keys.length - 1);
+		}
+		keys[slot] = href;
+		counts[slot] = 1;
+		if (++size > keys.length >> 1) {
+			grow();
+		}
+		return 1;
+	}
+
+	/**
+	 * @param href The href value.
+	 * @return How often the href was added, 0 if never.
+	 */
+	int count(String href) {
+		int slot = slotOf(href);
+		while (keys[slot] != null) {
+			if (keys[slot].equals(href)) {
+				return counts[slot];
+			}
+			slot = (slot + 1) & (keys.length - 1);
+		}
+		return 0;
+	}
+
+	/**
+	 * @return The number of distinct hrefs.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all hrefs and keeps the allocated slots for the next document.
+	 */
+	void clear() {
+		if (size > 0) {
+			Arrays.fill(keys, null);
+			size = 0;
+		}
+	}
+
+	/**
+	 * @param href The href value.
+	 * @return The first slot to probe for the href.
+	 */
+	private int slotOf(String href) {
+		// Fibonacci hashing, the high bits of the product are well mixed
+		return (href.hashCode() * 0x9E3779B9) >>> shift;
+	}
+
+	/**
+	 * Doubles the capacity and inserts all hrefs again.
+	 */
+	private void grow() {
+		String[] oldKeys = keys;
+		int[] oldCounts = counts;
+		allocate(oldKeys.length << 1);
+		for (int i = 0; i < oldKeys.length; i++) {
+			String key = oldKeys[i];
+			if (key != null) {
+				int slot = slotOf(key);
+				while (keys[slot] != null) {
+					slot = (slot + 1) & (keys.length - 1);
+				}
+				keys[slot] = key;
+				counts[slot] = oldCounts[i];
+			}
+		}
+	}
+
+	/**
+	 * Allocates empty slots.
+	 *
+	 * @param capacity The number of slots, a power of two.
+	 */
+	private void allocate(int capacity) {
+		keys = new String[capacity];
+		counts = new int[capacity];
+		shift = Integer.numberOfLeadingZeros(capacity - 1);
+	}
+
+	/**
+	 * @param expectedHrefs The number of hrefs to hold.
+	 * @return The smallest power of two that keeps the table at most half full.
+	 */
+	private static int capacityFor(int expectedHrefs) {
+		int capacity = MIN_CAPACITY;
+		while (capacity >> 1 < expectedHrefs && capacity < 1 << 30) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+}
@@ -0,0 +1,184 @@
+package io.goobi.dlc;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Combines the summaries written by the shards of a fix job into the totals and
+ * the Goobi filter query of the whole job. With {@code --report} the JSON lines
+ * reports of the shards are concatenated into one report.
+ *
+ * <pre>
+ * MergeShardSummaries [--report FILE|-] &lt;summary&gt;...
+ * </pre>
+ */
+public class MergeShardSummaries {
+	private static final Logger logger = LogManager.getLogger(MergeShardSummaries.class);
+
+	private long filesWithDuplicates;
+	private long totalDuplicates;
+	private final List<String> processIDs = new ArrayList<>();
+	private final List<String> reports = new ArrayList<>();
+	private final Set<String> shards = new TreeSet<>();
+	private int shardCount;
+
+	/**
+	 * The main entry point of the application.
+	 *
+	 * @param args Command line arguments - options and the summary files.
+	 */
+	public static void main(String[] args) {
+		Path mergedReport = null;
+		List<Path> summaryFiles = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if ("--report".equals(args[i])) {
+				if (++i == args.length) {
+					logger.error("Missing value for --report");
+					return;
+				}
+				mergedReport = Paths.get(args[i]);
+			} else if (args[i].startsWith("--")) {
+				logger.error("Unknown option: " + args[i]);
+				return;
+			} else {
+				summaryFiles.add(Paths.get(args[i]));
+			}
+		}
+		if (summaryFiles.isEmpty()) {
+			logger.error("Please specify the summary files of the shards.");
+			return;
+		}
+
+		MergeShardSummaries merger = new MergeShardSummaries();
+		try {
+			for (Path summaryFile : summaryFiles) {
+				merger.add(ShardSummary.load(summaryFile));
+			}
+			if (mergedReport != null) {
+				merger.writeReport(mergedReport);
+			}
+		} catch (IOException e) {
+			logger.error("Error merging shard summaries: " + e.getMessage());
+			return;
+		}
+
+		List<String> missing = merger.getMissingShards();
+		if (!missing.isEmpty()) {
+			logger.warn("Summaries missing for shards: " + String.join(", ", missing));
+		}
+		logger.info("Number of shards merged: " + merger.shards.size());
+		logger.info("Number of files with duplicates: " + merger.filesWithDuplicates);
+		logger.info("Total count of duplicates: " + merger.totalDuplicates);
+		logger.info("\"id: " + merger.getFilterQuery() + "\"");
+	}
+
+	/**
+	 * Adds the summary of one shard.
+	 *
+	 * @param summary The summary.
+	 * @throws IOException If the shard was already added or belongs to a job with
+	 *                     a different number of shards.
+	 */
+	void add(ShardSummary summary) throws IOException {
+		Shard shard;
+		try {
+			shard = Shard.parse(summary.getShard());
+		} catch (IllegalArgumentException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		if (shardCount != 0 && shard.getCount() != shardCount) {
+			throw new IOException("Shard " + shard + " does not belong to a job of " + shardCount + " shards");
+		}
+		if (!shards.add(shard.toString())) {
+			throw new IOException("Shard " + shard + " was given twice");
+		}
+		shardCount = shard.getCount();
+		filesWithDuplicates += summary.getFilesWithDuplicates();
+		totalDuplicates += summary.getTotalDuplicates();
+		processIDs.addAll(summary.getProcessIDs());
+		if (summary.getReport() != null) {
+			reports.add(summary.getReport());
+		}
+	}
+
+	/**
+	 * Concatenates the reports of the shards.
+	 *
+	 * @param mergedReport The merged report, "-" writes to standard output.
+	 * @throws IOException If a report cannot be read or the merged report cannot
+	 *                     be written.
+	 */
+	void writeReport(Path mergedReport) throws IOException {
+		boolean standardOutput = "-".equals(mergedReport.toString());
+		Writer writer = standardOutput
+				? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+				: Files.newBufferedWriter(mergedReport, StandardCharsets.UTF_8);
+		try {
+			for (String report : reports) {
+				// Line by line, a report can be larger than the heap
+				try (BufferedReader reader = Files.newBufferedReader(Paths.get(report), StandardCharsets.UTF_8)) {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						writer.write(line);
+						writer.write('\n');
+					}
+				}
+			}
+		} finally {
+			if (standardOutput) {
+				writer.flush();
+			} else {
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * @return The shards of the job without a summary, as "i/n".
+	 */
+	List<String> getMissingShards() {
+		List<String> missing = new ArrayList<>();
+		for (int i = 1; i <= shardCount; i++) {
+			String shard = i + "/" + shardCount;
+			if (!shards.contains(shard)) {
+				missing.add(shard);
+			}
+		}
+		return missing;
+	}
+
+	/**
+	 * @return The process IDs of all shards for the Goobi filter query.
+	 */
+	String getFilterQuery() {
+		return String.join(" ", processIDs);
+	}
+
+	/**
+	 * @return The number of files with duplicates in all shards.
+	 */
+	long getFilesWithDuplicates() {
+		return filesWithDuplicates;
+	}
+
+	/**
+	 * @return The number of duplicate hrefs in all shards.
+	 */
+	long getTotalDuplicates() {
+		return totalDuplicates;
+	}
+}
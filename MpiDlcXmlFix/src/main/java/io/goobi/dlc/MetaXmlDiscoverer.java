@@ -0,0 +1,85 @@
+package io.goobi.dlc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Finds all files named meta.xml below a directory with
+ * {@link Files#walkFileTree}. Every file is handed to a consumer as soon as it
+ * is found, so processing can start while the walk is still running. The
+ * attributes read by the walk are reused, no further stat calls are made per
+ * entry.
+ */
+class MetaXmlDiscoverer {
+	private static final Logger logger = LogManager.getLogger(MetaXmlDiscoverer.class);
+	private static final String META_XML = "meta.xml";
+
+	private final Path directory;
+
+	/**
+	 * Creates a discoverer for the given directory.
+	 *
+	 * @param directory The directory to be searched.
+	 */
+	MetaXmlDiscoverer(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Walks the directory and passes every meta.xml to the consumer. The walk stops
+	 * early if the current thread is interrupted.
+	 *
+	 * @param consumer Receives the meta.xml files in the order they are found.
+	 * @throws IOException If the directory itself cannot be read.
+	 */
+	void discover(Consumer<File> consumer) throws IOException {
+		discoverWithAttributes((file, attrs) -> consumer.accept(file));
+	}
+
+	/**
+	 * Walks the directory and passes every meta.xml together with the attributes
+	 * read by the walk to the consumer.
+	 *
+	 * @param consumer Receives the meta.xml files and their attributes in the
+	 *                 order they are found.
+	 * @throws IOException If the directory itself cannot be read.
+	 */
+	void discoverWithAttributes(BiConsumer<File, BasicFileAttributes> consumer) throws IOException {
+		// Follow links like File.isDirectory() did, loops are reported by the walk
+		Files.walkFileTree(directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+				new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+						return Thread.currentThread().isInterrupted() ? FileVisitResult.TERMINATE
+								: FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+						if (attrs.isRegularFile() && META_XML.equals(file.getFileName().toString())) {
+							consumer.accept(file.toFile(), attrs);
+						}
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(Path file, IOException e) {
+						// Unreadable entries are skipped like before
+						logger.warn("Cannot read " + file + ": " + e);
+						return FileVisitResult.CONTINUE;
+					}
+				});
+	}
+}
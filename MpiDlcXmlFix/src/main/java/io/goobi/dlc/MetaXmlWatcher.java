@@ -0,0 +1,246 @@
+package io.goobi.dlc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Watches a directory tree for new and modified meta.xml files, so a running
+ * JVM can fix every import as soon as it lands. Every directory below the root
+ * is registered with a {@link WatchService}, new directories are registered
+ * when they appear and searched for files that were written before the
+ * registration.
+ *
+ * <p>
+ * Imports write a file in several steps, so a changed file is only handed on
+ * after it was quiet for the debounce time. The files that became quiet are
+ * passed to the consumer as one batch. If the watch service lost events, the
+ * whole tree is searched again.
+ * </p>
+ *
+ * <p>
+ * On Linux every directory uses one inotify watch, large trees may need a
+ * higher {@code fs.inotify.max_user_watches}.
+ * </p>
+ */
+class MetaXmlWatcher implements Closeable {
+	private static final Logger logger = LogManager.getLogger(MetaXmlWatcher.class);
+	private static final String META_XML = "meta.xml";
+
+	private final Path root;
+	private final long debounceNanos;
+	private final WatchService watchService;
+	private final Map<WatchKey, Path> directories = new HashMap<>();
+	// Changed files and the time they were last written to, in arrival order
+	private final Map<Path, Long> pending = new LinkedHashMap<>();
+	// Modification times of the files saved by the fix itself
+	private final Map<Path, Long> ownWrites = new ConcurrentHashMap<>();
+
+	/**
+	 * Starts watching the directory tree.
+	 *
+	 * @param root           The directory to watch.
+	 * @param debounceMillis How long a file has to stay unchanged before it is
+	 *                       processed.
+	 * @throws IOException If the watch service cannot be created or the root
+	 *                     cannot be registered.
+	 */
+	MetaXmlWatcher(Path root, long debounceMillis) throws IOException {
+		this.root = root;
+		this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+		this.watchService = FileSystems.getDefault().newWatchService();
+		registerTree(root, false);
+		logger.info("Watching " + directories.size() + " directories below " + root);
+	}
+
+	/**
+	 * Hands the changed files to the consumer until the watcher is closed or the
+	 * thread is interrupted.
+	 *
+	 * @param consumer Receives the meta.xml files that became quiet, one batch at
+	 *                 a time on the calling thread.
+	 */
+	void run(Consumer<List<File>> consumer) {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				WatchKey key = pending.isEmpty() ? watchService.take()
+						: watchService.poll(nextDeadline() - System.nanoTime(), TimeUnit.NANOSECONDS);
+				if (key != null) {
+					handleEvents(key);
+				}
+				List<File> ready = takeReadyFiles();
+				if (!ready.isEmpty()) {
+					consumer.accept(ready);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			// Stopped by another thread, e.g. the shutdown hook
+		}
+		logger.info("Stopped watching " + root);
+	}
+
+	/**
+	 * Remembers a file saved by the fix, so the event of the save does not start
+	 * another round for it.
+	 *
+	 * @param xmlFile The saved meta.xml.
+	 */
+	void ignoreOwnWrite(File xmlFile) {
+		ownWrites.put(xmlFile.toPath().toAbsolutePath(), xmlFile.lastModified());
+	}
+
+	/**
+	 * Handles the events of one directory.
+	 *
+	 * @param key The signalled key.
+	 */
+	private void handleEvents(WatchKey key) {
+		Path directory = directories.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				logger.warn("Events were lost, searching " + root + " again");
+				registerTree(root, true);
+				continue;
+			}
+			if (directory == null) {
+				continue;
+			}
+			Path path = directory.resolve((Path) event.context());
+			if (META_XML.equals(path.getFileName().toString())) {
+				schedule(path);
+			} else if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+				// A new process, its meta.xml may already be there
+				registerTree(path, true);
+			}
+		}
+		if (!key.reset()) {
+			directories.remove(key);
+		}
+	}
+
+	/**
+	 * Marks a file as changed, moving its deadline to the end of the debounce
+	 * time.
+	 *
+	 * @param xmlFile The changed meta.xml.
+	 */
+	private void schedule(Path xmlFile) {
+		pending.remove(xmlFile);
+		pending.put(xmlFile, System.nanoTime());
+	}
+
+	/**
+	 * @return The time at which the oldest pending file becomes quiet.
+	 */
+	private long nextDeadline() {
+		long oldest = Long.MAX_VALUE;
+		for (long changed : pending.values()) {
+			oldest = Math.min(oldest, changed);
+		}
+		return oldest + debounceNanos;
+	}
+
+	/**
+	 * Removes the files that stayed unchanged for the debounce time from the
+	 * pending files.
+	 *
+	 * @return The quiet files, without the files the fix saved itself.
+	 */
+	private List<File> takeReadyFiles() {
+		List<File> ready = new ArrayList<>();
+		long now = System.nanoTime();
+		Iterator<Map.Entry<Path, Long>> iterator = pending.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Path, Long> entry = iterator.next();
+			if (now - entry.getValue() < debounceNanos) {
+				continue;
+			}
+			iterator.remove();
+			File file = entry.getKey().toFile();
+			Long ownWrite = ownWrites.remove(entry.getKey());
+			if (!file.isFile() || ownWrite != null && ownWrite == file.lastModified()) {
+				continue;
+			}
+			ready.add(file);
+		}
+		return ready;
+	}
+
+	/**
+	 * Registers a directory and all directories below it.
+	 *
+	 * @param start        The directory to register.
+	 * @param scheduleFiles True to schedule the meta.xml files found, for
+	 *                      directories that may have been written before they
+	 *                      were watched.
+	 */
+	private void registerTree(Path start, boolean scheduleFiles) {
+		try {
+			Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+					WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+							StandardWatchEventKinds.ENTRY_MODIFY);
+					directories.put(key, dir);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					if (scheduleFiles && attrs.isRegularFile() && META_XML.equals(file.getFileName().toString())) {
+						schedule(file);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					logger.warn("Cannot watch " + file + ": " + e);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			logger.error("Cannot watch " + start + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Stops watching, {@link #run(Consumer)} returns after the current batch.
+	 * Can be called from any thread.
+	 *
+	 * @throws IOException If the watch service cannot be closed.
+	 */
+	void stop() throws IOException {
+		watchService.close();
+	}
+
+	@Override
+	public void close() throws IOException {
+		stop();
+	}
+}
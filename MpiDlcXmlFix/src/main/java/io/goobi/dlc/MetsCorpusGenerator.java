@@ -0,0 +1,434 @@
+package io.goobi.dlc;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Generates a synthetic corpus of Goobi process directories, each with a
+ * meta.xml in the METS structure {@link FixForXmlFiles} works on: a fileGrp
+ * with mets:file/mets:FLocat entries, a physical structMap with one page div
+ * with ORDER and mets:fptr per file, a logical structMap nested to the given
+ * depth and a structLink linking every logical div to its pages.
+ *
+ * <p>
+ * With the duplicate rate a page points to the image of an earlier page
+ * instead of a new one, which produces the duplicate hrefs the fix removes.
+ * The files are written with a streaming writer, so arbitrarily large files
+ * need no more memory than small ones. The same seed always produces the same
+ * corpus, no matter how many threads are used.
+ * </p>
+ *
+ * <pre>
+ * MetsCorpusGenerator [--processes N] [--pages N] [--duplicate-rate R]
+ *                     [--depth D] [--seed S] [--threads N] &lt;directory&gt;
+ * </pre>
+ */
+public class MetsCorpusGenerator {
+	private static final Logger logger = LogManager.getLogger(MetsCorpusGenerator.class);
+	private static final String METS_NS = "http://www.loc.gov/METS/";
+	private static final String XLINK_NS = "http://www.w3.org/1999/xlink";
+	private static final String GOOBI_NS = "http://meta.goobi.org/v1.5.1/";
+	private static final String MODS_NS = "http://www.loc.gov/mods/v3";
+	// Number of child sections of every logical div above the deepest level
+	private static final int SECTIONS_PER_LEVEL = 3;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private int processes = 100;
+	private int pages = 200;
+	private double duplicateRate = 0.01;
+	private int depth = 2;
+	private long seed = 1;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	private final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+	private final LongAdder filesWritten = new LongAdder();
+	private final LongAdder filesWithDuplicates = new LongAdder();
+	private final LongAdder totalDuplicates = new LongAdder();
+	private final LongAdder bytesWritten = new LongAdder();
+	// Set when the generation is interrupted, the workers stop starting new files
+	private volatile boolean stopped = false;
+
+	/**
+	 * The main entry point of the generator.
+	 *
+	 * @param args Command line arguments - options and only one directory.
+	 */
+	public static void main(String[] args) {
+		MetsCorpusGenerator generator = new MetsCorpusGenerator();
+		File directory = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if ("--processes".equals(arg)) {
+					generator.processes = Integer.parseInt(valueOf(args, ++i, arg));
+				} else if ("--pages".equals(arg)) {
+					generator.pages = Integer.parseInt(valueOf(args, ++i, arg));
+				} else if ("--duplicate-rate".equals(arg)) {
+					generator.duplicateRate = Double.parseDouble(valueOf(args, ++i, arg));
+				} else if ("--depth".equals(arg)) {
+					generator.depth = Integer.parseInt(valueOf(args, ++i, arg));
+				} else if ("--seed".equals(arg)) {
+					generator.seed = Long.parseLong(valueOf(args, ++i, arg));
+				} else if ("--threads".equals(arg)) {
+					generator.threads = Integer.parseInt(valueOf(args, ++i, arg));
+				} else if (directory == null && !arg.startsWith("--")) {
+					directory = new File(arg).getAbsoluteFile();
+				} else {
+					throw new IllegalArgumentException("Please specify only one directory.");
+				}
+			}
+			if (directory == null) {
+				throw new IllegalArgumentException("Please specify only one directory.");
+			}
+			generator.validate();
+		} catch (IllegalArgumentException e) {
+			// NumberFormatException is an IllegalArgumentException as well
+			logger.error(e.getMessage());
+			return;
+		}
+
+		try {
+			generator.generate(directory.toPath());
+		} catch (InterruptedIOException e) {
+			logger.warn("Generation interrupted, the corpus in " + directory + " is incomplete");
+		} catch (IOException e) {
+			logger.error("Error generating corpus in " + directory, e);
+			return;
+		}
+		logger.info("Number of files generated: " + generator.getFilesWritten());
+		logger.info("Number of files with duplicates: " + generator.getFilesWithDuplicates());
+		logger.info("Total count of duplicates: " + generator.getTotalDuplicates());
+		logger.info("Bytes written: " + generator.bytesWritten.sum());
+	}
+
+	/**
+	 * Returns the value following an option.
+	 *
+	 * @param args   The command line arguments.
+	 * @param index  The index of the value.
+	 * @param option The name of the option, used for the error message.
+	 * @return The value of the option.
+	 */
+	private static String valueOf(String[] args, int index, String option) {
+		if (index >= args.length) {
+			throw new IllegalArgumentException("Missing value for " + option);
+		}
+		return args[index];
+	}
+
+	/**
+	 * Checks that the options describe a corpus that can be generated.
+	 */
+	private void validate() {
+		if (processes < 1 || pages < 1 || depth < 1 || threads < 1) {
+			throw new IllegalArgumentException("--processes, --pages, --depth and --threads must be positive.");
+		}
+		if (duplicateRate < 0 || duplicateRate > 1) {
+			throw new IllegalArgumentException("--duplicate-rate must be between 0 and 1.");
+		}
+	}
+
+	/**
+	 * Sets the shape of the generated corpus.
+	 *
+	 * @param processes     The number of process directories.
+	 * @param pages         The number of pages per process.
+	 * @param duplicateRate The probability that a page reuses an earlier image.
+	 * @param depth         The nesting depth of the logical structMap.
+	 * @param seed          The seed of the random numbers.
+	 */
+	void configure(int processes, int pages, double duplicateRate, int depth, long seed) {
+		this.processes = processes;
+		this.pages = pages;
+		this.duplicateRate = duplicateRate;
+		this.depth = depth;
+		this.seed = seed;
+		validate();
+	}
+
+	/**
+	 * Generates the process directories 1 to N below the given directory, in
+	 * parallel on the configured number of threads.
+	 *
+	 * @param directory The directory to generate the corpus in.
+	 * @throws InterruptedIOException If the thread is interrupted, the files
+	 *                                written so far are kept.
+	 * @throws IOException            If a file cannot be written.
+	 */
+	void generate(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		stopped = false;
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.submit(() -> IntStream.rangeClosed(1, processes).parallel().forEach(id -> {
+				if (stopped) {
+					return;
+				}
+				try {
+					generateProcess(directory.resolve(Integer.toString(id)), id);
+				} catch (IOException | XMLStreamException e) {
+					throw new IllegalStateException("Cannot generate process " + id, e);
+				}
+			})).get();
+		} catch (InterruptedException e) {
+			// The tasks of a parallel stream ignore the interrupt, the flag stops them
+			stopped = true;
+			pool.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Generation interrupted after " + filesWritten.sum() + " files");
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Generates the meta.xml of one process.
+	 *
+	 * @param processDirectory The directory of the process.
+	 * @param id               The process ID, part of the seed of the process.
+	 * @throws IOException        If the file cannot be written.
+	 * @throws XMLStreamException If the XML cannot be written.
+	 */
+	private void generateProcess(Path processDirectory, int id) throws IOException, XMLStreamException {
+		// One random sequence per process, independent of the processing order
+		Random random = new Random(seed * 31 + id);
+
+		// Image number of every page, duplicates reuse the image of an earlier page
+		int[] images = new int[pages];
+		boolean[] duplicated = new boolean[pages + 1];
+		int duplicates = 0;
+		int nextImage = 1;
+		for (int page = 0; page < pages; page++) {
+			if (page > 0 && random.nextDouble() < duplicateRate) {
+				images[page] = images[random.nextInt(page)];
+				if (!duplicated[images[page]]) {
+					duplicated[images[page]] = true;
+					duplicates++;
+				}
+			} else {
+				images[page] = nextImage++;
+			}
+		}
+		Files.createDirectories(processDirectory);
+		Path file = processDirectory.resolve("meta.xml");
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE)) {
+			XMLStreamWriter writer = outputFactory.createXMLStreamWriter(out, "UTF-8");
+			try {
+				writeMets(writer, id, images);
+			} finally {
+				writer.close();
+			}
+		}
+		// Only files that were written completely are counted
+		bytesWritten.add(Files.size(file));
+		filesWritten.increment();
+		if (duplicates > 0) {
+			filesWithDuplicates.increment();
+			totalDuplicates.add(duplicates);
+		}
+	}
+
+	/**
+	 * Writes the whole METS document.
+	 *
+	 * @param writer The writer of the file.
+	 * @param id     The process ID.
+	 * @param images The image number of every page.
+	 * @throws XMLStreamException If the XML cannot be written.
+	 */
+	private void writeMets(XMLStreamWriter writer, int id, int[] images) throws XMLStreamException {
+		writer.writeStartDocument("UTF-8", "1.0");
+		writer.setPrefix("mets", METS_NS);
+		writer.setPrefix("xlink", XLINK_NS);
+		writer.setPrefix("mods", MODS_NS);
+		writer.setPrefix("goobi", GOOBI_NS);
+		writer.writeStartElement(METS_NS, "mets");
+		writer.writeNamespace("mets", METS_NS);
+		writer.writeNamespace("xlink", XLINK_NS);
+		writer.writeNamespace("mods", MODS_NS);
+		writer.writeNamespace("goobi", GOOBI_NS);
+		writer.writeAttribute("OBJID", "");
+
+		// Descriptive metadata of the top logical div
+		writer.writeStartElement(METS_NS, "dmdSec");
+		writer.writeAttribute("ID", "DMDLOG_0000");
+		writer.writeStartElement(METS_NS, "mdWrap");
+		writer.writeAttribute("MDTYPE", "MODS");
+		writer.writeStartElement(METS_NS, "xmlData");
+		writer.writeStartElement(MODS_NS, "mods");
+		writer.writeStartElement(MODS_NS, "extension");
+		writer.writeStartElement(GOOBI_NS, "goobi");
+		writer.writeStartElement(GOOBI_NS, "metadata");
+		writer.writeAttribute("name", "TitleDocMain");
+		writer.writeCharacters("Synthetic process " + id);
+		writer.writeEndElement();
+		writer.writeEndElement();
+		writer.writeEndElement();
+		writer.writeEndElement();
+		writer.writeEndElement();
+		writer.writeEndElement();
+		writer.writeEndElement();
+
+		// One file per page, duplicates point to the same image
+		writer.writeStartElement(METS_NS, "fileSec");
+		writer.writeStartElement(METS_NS, "fileGrp");
+		writer.writeAttribute("USE", "LOCAL");
+		for (int page = 1; page <= images.length; page++) {
+			writer.writeStartElement(METS_NS, "file");
+			writer.writeAttribute("ID", id("FILE_", page));
+			writer.writeAttribute("MIMETYPE", "image/tiff");
+			writer.writeEmptyElement(METS_NS, "FLocat");
+			writer.writeAttribute("LOCTYPE", "URL");
+			writer.writeAttribute(XLINK_NS, "href", String.format("%08d.tif", images[page - 1]));
+			writer.writeEndElement();
+		}
+		writer.writeEndElement();
+		writer.writeEndElement();
+
+		// Logical structure nested to the configured depth
+		writer.writeStartElement(METS_NS, "structMap");
+		writer.writeAttribute("TYPE", "LOGICAL");
+		writeLogicalDiv(writer, 1, new int[] { 0 }, "DMDLOG_0000");
+		writer.writeEndElement();
+
+		// One page div per file
+		writer.writeStartElement(METS_NS, "structMap");
+		writer.writeAttribute("TYPE", "PHYSICAL");
+		writer.writeStartElement(METS_NS, "div");
+		writer.writeAttribute("DMDID", "DMDPHYS_0000");
+		writer.writeAttribute("ID", "PHYS_0000");
+		writer.writeAttribute("TYPE", "BoundBook");
+		for (int page = 1; page <= images.length; page++) {
+			writer.writeStartElement(METS_NS, "div");
+			writer.writeAttribute("ID", id("PHYS_", page));
+			writer.writeAttribute("ORDER", Integer.toString(page));
+			writer.writeAttribute("ORDERLABEL", Integer.toString(page));
+			writer.writeAttribute("TYPE", "page");
+			writer.writeEmptyElement(METS_NS, "fptr");
+			writer.writeAttribute("FILEID", id("FILE_", page));
+			writer.writeEndElement();
+		}
+		writer.writeEndElement();
+		writer.writeEndElement();
+
+		// Every logical div links to the pages of its section
+		writer.writeStartElement(METS_NS, "structLink");
+		writeStructLinks(writer, 1, new int[] { 0 }, 1, images.length);
+		writer.writeEndElement();
+
+		writer.writeEndElement();
+		writer.writeEndDocument();
+	}
+
+	/**
+	 * Writes a logical div and its child sections.
+	 *
+	 * @param writer The writer of the file.
+	 * @param level  The level of the div, 1 is the top div.
+	 * @param count  The number of logical divs written so far.
+	 * @param dmdID  The DMDID of the div, or null.
+	 * @throws XMLStreamException If the XML cannot be written.
+	 */
+	private void writeLogicalDiv(XMLStreamWriter writer, int level, int[] count, String dmdID)
+			throws XMLStreamException {
+		boolean leaf = level == depth;
+		if (leaf) {
+			writer.writeEmptyElement(METS_NS, "div");
+		} else {
+			writer.writeStartElement(METS_NS, "div");
+		}
+		if (dmdID != null) {
+			writer.writeAttribute("DMDID", dmdID);
+		}
+		writer.writeAttribute("ID", id("LOG_", count[0]++));
+		writer.writeAttribute("TYPE", level == 1 ? "Monograph" : "Chapter");
+		if (!leaf) {
+			for (int i = 0; i < SECTIONS_PER_LEVEL; i++) {
+				writeLogicalDiv(writer, level + 1, count, null);
+			}
+			writer.writeEndElement();
+		}
+	}
+
+	/**
+	 * Writes the smLinks of a logical div and its child sections. The pages are
+	 * split evenly between the child sections, in the same order as
+	 * {@link #writeLogicalDiv(XMLStreamWriter, int, int[], String)} numbers the
+	 * divs.
+	 *
+	 * @param writer    The writer of the file.
+	 * @param level     The level of the div, 1 is the top div.
+	 * @param count     The number of logical divs handled so far.
+	 * @param firstPage The first page of the section.
+	 * @param lastPage  The last page of the section.
+	 * @throws XMLStreamException If the XML cannot be written.
+	 */
+	private void writeStructLinks(XMLStreamWriter writer, int level, int[] count, int firstPage, int lastPage)
+			throws XMLStreamException {
+		String logID = id("LOG_", count[0]++);
+		for (int page = firstPage; page <= lastPage; page++) {
+			writer.writeEmptyElement(METS_NS, "smLink");
+			writer.writeAttribute(XLINK_NS, "to", id("PHYS_", page));
+			writer.writeAttribute(XLINK_NS, "from", logID);
+		}
+		if (level < depth) {
+			int sectionPages = lastPage - firstPage + 1;
+			for (int i = 0; i < SECTIONS_PER_LEVEL; i++) {
+				int first = firstPage + sectionPages * i / SECTIONS_PER_LEVEL;
+				int last = firstPage + sectionPages * (i + 1) / SECTIONS_PER_LEVEL - 1;
+				writeStructLinks(writer, level + 1, count, first, last);
+			}
+		}
+	}
+
+	/**
+	 * Formats a METS ID like Goobi does, e.g. PHYS_0001.
+	 *
+	 * @param prefix The prefix of the ID.
+	 * @param number The number of the ID.
+	 * @return The formatted ID.
+	 */
+	private static String id(String prefix, int number) {
+		return prefix + String.format("%04d", number);
+	}
+
+	/**
+	 * @return The number of files written completely.
+	 */
+	long getFilesWritten() {
+		return filesWritten.sum();
+	}
+
+	/**
+	 * @return The number of generated files with at least one duplicate href.
+	 */
+	long getFilesWithDuplicates() {
+		return filesWithDuplicates.sum();
+	}
+
+	/**
+	 * @return The number of distinct duplicate hrefs in all generated files.
+	 */
+	long getTotalDuplicates() {
+		return totalDuplicates.sum();
+	}
+}
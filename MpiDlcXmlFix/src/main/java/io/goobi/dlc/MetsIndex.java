@@ -0,0 +1,140 @@
+package io.goobi.dlc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jdom2.Attribute;
+import org.jdom2.Element;
+
+/**
+ * Index over a METS document that is built in a single traversal. It maps the
+ * href of every mets:FLocat to the ID of its mets:file, every FILEID of a
+ * mets:fptr to the ID of its physical mets:div and every PHYS ID to the
+ * mets:smLink elements that reference it. All elements with an ID attribute
+ * are kept as well, so duplicates can be looked up and removed without walking
+ * the document again.
+ */
+class MetsIndex {
+	private final Map<String, List<String>> fileIDsByHref = new HashMap<>();
+	private final Map<String, List<String>> physIDsByFileID = new HashMap<>();
+	private final Map<String, List<Element>> smLinksByPhysID = new HashMap<>();
+	private final Map<String, List<Element>> elementsByID = new HashMap<>();
+
+	/**
+	 * Builds the index for the given element and all of its descendants.
+	 *
+	 * @param rootElement The root element of the METS document.
+	 */
+	MetsIndex(Element rootElement) {
+		if (rootElement != null) {
+			indexElement(rootElement);
+		}
+	}
+
+	/**
+	 * Adds the element to the index and recursively continues with its children.
+	 *
+	 * @param element The current XML element being indexed.
+	 */
+	private void indexElement(Element element) {
+		Element parentElement = element.getParentElement();
+		String parentID = parentElement != null ? parentElement.getAttributeValue("ID") : null;
+
+		List<Attribute> attributes = element.getAttributes();
+		for (Attribute attribute : attributes) {
+			String name = attribute.getName();
+			String value = attribute.getValue();
+			if ("ID".equals(name)) {
+				// Every element with an ID can be removed later on
+				add(elementsByID, value, element);
+			} else if ("href".equals(name) && parentID != null) {
+				// mets:FLocat xlink:href -> ID of the mets:file
+				add(fileIDsByHref, value, parentID);
+			} else if ("FILEID".equals(name) && parentID != null) {
+				// mets:fptr FILEID -> ID of the physical mets:div
+				add(physIDsByFileID, value, parentID);
+			} else if (("to".equals(name) || "from".equals(name)) && "smLink".equals(element.getName())) {
+				// mets:smLink xlink:to / xlink:from -> the smLink itself
+				add(smLinksByPhysID, value, element);
+			}
+		}
+
+		for (Element child : element.getChildren()) {
+			indexElement(child);
+		}
+	}
+
+	/**
+	 * Adds a value to the list that is stored under the given key.
+	 *
+	 * @param map   The map to add the value to.
+	 * @param key   The key of the list.
+	 * @param value The value to add.
+	 */
+	private static <T> void add(Map<String, List<T>> map, String key, T value) {
+		List<T> values = map.get(key);
+		if (values == null) {
+			values = new ArrayList<>(1);
+			map.put(key, values);
+		}
+		values.add(value);
+	}
+
+	/**
+	 * Returns the IDs of all mets:file elements referencing the given href, in
+	 * document order.
+	 *
+	 * @param href The href value of the mets:FLocat.
+	 * @return List of mets:file IDs, empty if the href is unknown.
+	 */
+	List<String> getFileIDs(String href) {
+		return valuesOf(fileIDsByHref, href);
+	}
+
+	/**
+	 * Returns the IDs of all physical mets:div elements pointing to the given
+	 * mets:file, in document order.
+	 *
+	 * @param fileID The ID of the mets:file.
+	 * @return List of PHYS IDs, empty if no mets:fptr references the file.
+	 */
+	List<String> getPhysIDs(String fileID) {
+		return valuesOf(physIDsByFileID, fileID);
+	}
+
+	/**
+	 * Returns all mets:smLink elements whose from or to value is the given PHYS
+	 * ID.
+	 *
+	 * @param physID The ID of the physical mets:div.
+	 * @return List of smLink elements, empty if none reference the ID.
+	 */
+	List<Element> getSmLinks(String physID) {
+		return valuesOf(smLinksByPhysID, physID);
+	}
+
+	/**
+	 * Returns all elements carrying the given ID attribute.
+	 *
+	 * @param id The value of the ID attribute.
+	 * @return List of elements, empty if the ID is unknown.
+	 */
+	List<Element> getElements(String id) {
+		return valuesOf(elementsByID, id);
+	}
+
+	/**
+	 * Looks up the list stored under the key.
+	 *
+	 * @param map The map to look in.
+	 * @param key The key of the list.
+	 * @return The stored list or an empty list.
+	 */
+	private static <T> List<T> valuesOf(Map<String, List<T>> map, String key) {
+		List<T> values = map.get(key);
+		return values != null ? values : Collections.<T>emptyList();
+	}
+}
@@ -0,0 +1,217 @@
+package io.goobi.dlc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Fixes the meta.xml files of given processes without walking the metadata
+ * directory, e.g. from a Goobi step plugin right after an import:
+ *
+ * <pre>
+ * ProcessFixer.Result result = new ProcessFixer(Paths.get("/opt/digiverso/goobi/metadata"), 4)
+ * 		.fixProcesses(Arrays.asList("185447", "185681"));
+ * </pre>
+ *
+ * <p>
+ * A process is given by its ID, which is the name of its directory below the
+ * metadata directory, or by the path of its directory or meta.xml. Only the
+ * given files are touched, the files are fixed in parallel and backed up like
+ * in a normal run.
+ * </p>
+ */
+public class ProcessFixer {
+	private static final Logger logger = LogManager.getLogger(ProcessFixer.class);
+	private static final String META_XML = "meta.xml";
+
+	private final Path metadataDirectory;
+	private final FixOptions options;
+
+	/**
+	 * Creates a fixer with the default options.
+	 *
+	 * @param metadataDirectory The directory holding one directory per process.
+	 * @param threads           The number of files fixed concurrently.
+	 */
+	public ProcessFixer(Path metadataDirectory, int threads) {
+		this(metadataDirectory, FixOptions.withThreads(threads));
+	}
+
+	/**
+	 * Creates a fixer with the options of a command line run.
+	 *
+	 * @param metadataDirectory The directory holding one directory per process.
+	 * @param options           The options of the run.
+	 */
+	ProcessFixer(Path metadataDirectory, FixOptions options) {
+		this.metadataDirectory = metadataDirectory.toAbsolutePath();
+		this.options = options;
+	}
+
+	/**
+	 * Fixes the meta.xml files of the given processes.
+	 *
+	 * @param processes Process IDs or paths of process directories or meta.xml
+	 *                  files.
+	 * @return The outcome of the run.
+	 */
+	public Result fixProcesses(Collection<String> processes) {
+		FixForXmlFiles fixer = new FixForXmlFiles(options);
+		return fix(fixer, resolveAll(processes));
+	}
+
+	/**
+	 * Fixes the given files with a fixer that is set up by the caller, e.g. with a
+	 * report or journals.
+	 *
+	 * @param fixer    The fixer.
+	 * @param xmlFiles The meta.xml files that exist.
+	 * @return The outcome of the run.
+	 */
+	Result fix(FixForXmlFiles fixer, Resolved xmlFiles) {
+		Result result = new Result(xmlFiles.missing);
+		FixRunner runner = new FixRunner(fixer, options.getThreads());
+		runner.addListener((file, status, fingerprint) -> {
+			if (status == FixStatus.FAILED) {
+				synchronized (result.failedFiles) {
+					result.failedFiles.add(file.toPath());
+				}
+			}
+		});
+		result.fixedProcessIDs.addAll(runner.run(xmlFiles.files));
+		result.totalDuplicates = fixer.getTotalDuplicates();
+		return result;
+	}
+
+	/**
+	 * Reads processes from a list with one process ID or path per line. Empty
+	 * lines and lines starting with # are skipped.
+	 *
+	 * @param reader The list.
+	 * @return The processes in the order of the list.
+	 * @throws IOException If the list cannot be read.
+	 */
+	static List<String> readProcesses(BufferedReader reader) throws IOException {
+		List<String> processes = new ArrayList<>();
+		String line;
+		while ((line = reader.readLine()) != null) {
+			line = line.trim();
+			if (!line.isEmpty() && !line.startsWith("#")) {
+				processes.add(line);
+			}
+		}
+		return processes;
+	}
+
+	/**
+	 * Finds the meta.xml files of the processes, each file is only stat-ed once.
+	 *
+	 * @param processes Process IDs or paths of process directories or meta.xml
+	 *                  files.
+	 * @return The existing files without repetitions and the missing ones.
+	 */
+	Resolved resolveAll(Collection<String> processes) {
+		Set<File> files = new LinkedHashSet<>();
+		List<Path> missing = new ArrayList<>();
+		for (String process : processes) {
+			File xmlFile = resolve(process);
+			if (xmlFile.isFile()) {
+				files.add(xmlFile);
+			} else {
+				logger.warn("No meta.xml for process " + process + ": " + xmlFile);
+				missing.add(xmlFile.toPath());
+			}
+		}
+		return new Resolved(new ArrayList<>(files), missing);
+	}
+
+	/**
+	 * Returns the meta.xml of a process.
+	 *
+	 * @param process A process ID, the path of a process directory or the path of
+	 *                a meta.xml, relative paths are resolved against the metadata
+	 *                directory.
+	 * @return The meta.xml, which may not exist.
+	 */
+	File resolve(String process) {
+		if (process.indexOf('/') < 0 && process.indexOf(File.separatorChar) < 0) {
+			// A process ID
+			return metadataDirectory.resolve(process).resolve(META_XML).toFile();
+		}
+		Path path = metadataDirectory.resolve(process).normalize();
+		return META_XML.equals(path.getFileName().toString()) ? path.toFile() : path.resolve(META_XML).toFile();
+	}
+
+	/**
+	 * The meta.xml files found for a list of processes.
+	 */
+	static class Resolved {
+		private final List<File> files;
+		private final List<Path> missing;
+
+		Resolved(List<File> files, List<Path> missing) {
+			this.files = files;
+			this.missing = missing;
+		}
+
+		/**
+		 * @return The existing meta.xml files.
+		 */
+		List<File> getFiles() {
+			return files;
+		}
+	}
+
+	/**
+	 * The outcome of fixing a list of processes.
+	 */
+	public static class Result {
+		private final List<String> fixedProcessIDs = new ArrayList<>();
+		private final List<Path> missingFiles;
+		private final List<Path> failedFiles = new ArrayList<>();
+		private long totalDuplicates;
+
+		Result(List<Path> missingFiles) {
+			this.missingFiles = missingFiles;
+		}
+
+		/**
+		 * @return The IDs of the processes whose duplicates were fixed, in the order
+		 *         they were given.
+		 */
+		public List<String> getFixedProcessIDs() {
+			return Collections.unmodifiableList(fixedProcessIDs);
+		}
+
+		/**
+		 * @return The number of duplicate hrefs that were fixed.
+		 */
+		public long getTotalDuplicates() {
+			return totalDuplicates;
+		}
+
+		/**
+		 * @return The meta.xml files of the given processes that do not exist.
+		 */
+		public List<Path> getMissingFiles() {
+			return Collections.unmodifiableList(missingFiles);
+		}
+
+		/**
+		 * @return The files that could not be parsed or saved.
+		 */
+		public List<Path> getFailedFiles() {
+			return Collections.unmodifiableList(failedFiles);
+		}
+	}
+}
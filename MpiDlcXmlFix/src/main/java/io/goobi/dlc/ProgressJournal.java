@@ -0,0 +1,178 @@
+package io.goobi.dlc;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Append-only journal of the files completed by a run, so a run that died can
+ * be resumed without parsing or backing up the finished files again. Every
+ * line holds {@code status duplicates path}, separated by tabs.
+ *
+ * <p>
+ * Clean files are flushed in batches. A fixed file is flushed right away: after
+ * a crash it would be found clean and would be missing from the totals and the
+ * Goobi query of the resumed run. Failed files are not journaled and are tried
+ * again.
+ * </p>
+ */
+class ProgressJournal implements Closeable {
+	private static final Logger logger = LogManager.getLogger(ProgressJournal.class);
+	// Clean files written before the journal is flushed
+	private static final int BATCH_SIZE = 256;
+	private static final long BATCH_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+	private final Map<String, Entry> completed = new ConcurrentHashMap<>();
+	private final LongAdder resumedFiles = new LongAdder();
+	private final Writer writer;
+	private int unflushed;
+	private long lastFlush = System.nanoTime();
+
+	/**
+	 * Opens the journal for appending.
+	 *
+	 * @param journalFile The journal file.
+	 * @param resume      True to skip the files completed by an earlier run, false
+	 *                    to start a new journal.
+	 * @return The opened journal.
+	 * @throws IOException If the journal cannot be read or written.
+	 */
+	static ProgressJournal open(Path journalFile, boolean resume) throws IOException {
+		ProgressJournal journal = new ProgressJournal(Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				resume ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING));
+		if (resume) {
+			journal.load(journalFile);
+		}
+		return journal;
+	}
+
+	/**
+	 * Creates a journal writing to the given writer.
+	 *
+	 * @param writer The writer of the journal file.
+	 */
+	private ProgressJournal(Writer writer) {
+		this.writer = writer;
+	}
+
+	/**
+	 * Reads the files completed by earlier runs. A line cut off by a crash is
+	 * ignored.
+	 *
+	 * @param journalFile The journal file.
+	 * @throws IOException If the journal cannot be read.
+	 */
+	private void load(Path journalFile) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", 3);
+				try {
+					completed.put(fields[2], new Entry(FixStatus.valueOf(fields[0]), Integer.parseInt(fields[1])));
+				} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+					logger.warn("Ignoring invalid journal line: " + line);
+				}
+			}
+		}
+		logger.info("Resuming after " + completed.size() + " completed files from journal " + journalFile);
+	}
+
+	/**
+	 * Returns the result of a file completed by an earlier run.
+	 *
+	 * @param file The meta.xml.
+	 * @return The journaled result, or null if the file still has to be
+	 *         processed.
+	 */
+	Entry getCompleted(File file) {
+		Entry entry = completed.get(file.getAbsolutePath());
+		if (entry != null) {
+			resumedFiles.increment();
+		}
+		return entry;
+	}
+
+	/**
+	 * Appends a completed file to the journal. Called concurrently by the worker
+	 * threads.
+	 *
+	 * @param file       The processed meta.xml.
+	 * @param status     The outcome for the file, failed files are not journaled.
+	 * @param duplicates The number of distinct duplicate hrefs that were fixed.
+	 */
+	void record(File file, FixStatus status, int duplicates) {
+		if (status == FixStatus.FAILED) {
+			return;
+		}
+		String line = status + "\t" + duplicates + "\t" + file.getAbsolutePath() + "\n";
+		synchronized (writer) {
+			try {
+				writer.write(line);
+				unflushed++;
+				long now = System.nanoTime();
+				if (status == FixStatus.FIXED || unflushed >= BATCH_SIZE || now - lastFlush >= BATCH_NANOS) {
+					writer.flush();
+					unflushed = 0;
+					lastFlush = now;
+				}
+			} catch (IOException e) {
+				logger.error("Error writing journal for " + file.getAbsolutePath() + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @return The number of files skipped because an earlier run completed them.
+	 */
+	long getResumedFiles() {
+		return resumedFiles.sum();
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (writer) {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Result of a completed file.
+	 */
+	static class Entry {
+		private final FixStatus status;
+		private final int duplicates;
+
+		Entry(FixStatus status, int duplicates) {
+			this.status = status;
+			this.duplicates = duplicates;
+		}
+
+		/**
+		 * @return The outcome for the file.
+		 */
+		FixStatus getStatus() {
+			return status;
+		}
+
+		/**
+		 * @return The number of distinct duplicate hrefs that were fixed.
+		 */
+		int getDuplicates() {
+			return duplicates;
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package io.goobi.dlc;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Persistent manifest of the meta.xml files seen by earlier runs. For every file
+ * that was found clean or was fixed it stores size, modification time and a
+ * SHA-256 hash of the content, so an incremental run can skip all files that
+ * did not change since.
+ *
+ * <p>
+ * The manifest is a tab separated text file with one line per file:
+ * {@code size mtime sha256 status path}.
+ * </p>
+ */
+class ScanManifest {
+	private static final Logger logger = LogManager.getLogger(ScanManifest.class);
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	// Paths seen by the current run, only these are written back
+	private final Set<String> seen = ConcurrentHashMap.newKeySet();
+	private final LongAdder skippedFiles = new LongAdder();
+
+	/**
+	 * Loads the manifest from the given file. A missing file results in an empty
+	 * manifest.
+	 *
+	 * @param manifestFile The manifest file.
+	 * @return The loaded manifest.
+	 * @throws IOException If the file exists but cannot be read.
+	 */
+	static ScanManifest load(Path manifestFile) throws IOException {
+		ScanManifest manifest = new ScanManifest();
+		if (Files.exists(manifestFile)) {
+			try (BufferedReader reader = Files.newBufferedReader(manifestFile, StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.split("\t", 5);
+					if (fields.length == 5) {
+						manifest.entries.put(fields[4], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+								fields[2], FixStatus.valueOf(fields[3])));
+					} else {
+						logger.warn("Ignoring invalid manifest line: " + line);
+					}
+				}
+			}
+			logger.info("Loaded " + manifest.entries.size() + " entries from manifest " + manifestFile);
+		}
+		return manifest;
+	}
+
+	/**
+	 * Checks whether the file is unchanged since it was last seen clean or fixed.
+	 * Size and modification time are compared first. If only the modification
+	 * time differs, the content hash decides and the entry is updated.
+	 *
+	 * @param file  The meta.xml to check.
+	 * @param attrs The attributes read while discovering the file.
+	 * @return True if the file can be skipped.
+	 */
+	boolean isUnchanged(File file, BasicFileAttributes attrs) {
+		String path = file.getAbsolutePath();
+		seen.add(path);
+		Entry entry = entries.get(path);
+		if (entry == null || entry.size != attrs.size()) {
+			return false;
+		}
+		long mtime = attrs.lastModifiedTime().toMillis();
+		if (entry.mtime != mtime) {
+			try {
+				if (!entry.hash.equals(hash(file))) {
+					return false;
+				}
+				// Touched but not changed
+				entries.put(path, new Entry(entry.size, mtime, entry.hash, entry.status));
+			} catch (IOException e) {
+				logger.trace("Cannot hash " + path, e);
+				return false;
+			}
+		}
+		skippedFiles.increment();
+		return true;
+	}
+
+	/**
+	 * Records the state of a file after it was processed. The fingerprint of the
+	 * bytes the fix has checked or written is recorded, the file is not read
+	 * again: a change after the fix must not be recorded as checked. Failed files
+	 * and files without a fingerprint are not recorded so they are tried again by
+	 * the next run.
+	 *
+	 * @param file        The processed meta.xml.
+	 * @param status      The outcome of the processing.
+	 * @param fingerprint The state of the processed bytes, may be null.
+	 */
+	void record(File file, FixStatus status, Fingerprint fingerprint) {
+		String path = file.getAbsolutePath();
+		seen.add(path);
+		if (status == FixStatus.FAILED || fingerprint == null || !fingerprint.isSet()) {
+			entries.remove(path);
+			return;
+		}
+		entries.put(path, new Entry(fingerprint.size, fingerprint.mtime, fingerprint.hash, status));
+	}
+
+	/**
+	 * Writes the entries of all files seen by this run to the manifest file. The
+	 * entries of other shards are kept, they were not looked at by this run. The
+	 * file is replaced atomically, so an interrupted run keeps the old manifest.
+	 *
+	 * @param manifestFile The manifest file.
+	 * @param shard        The shard processed by this run, null for all files.
+	 * @throws IOException If the manifest cannot be written.
+	 */
+	void save(Path manifestFile, Shard shard) throws IOException {
+		Path directory = manifestFile.toAbsolutePath().getParent();
+		Path tempFile = Files.createTempFile(directory, manifestFile.getFileName().toString(), ".tmp");
+		try {
+			try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+				// Sorted by path so the manifest is stable between runs
+				for (Map.Entry<String, Entry> mapEntry : new TreeMap<>(entries).entrySet()) {
+					String path = mapEntry.getKey();
+					if (!seen.contains(path) && (shard == null || shard.contains(new File(path)))) {
+						continue;
+					}
+					Entry entry = mapEntry.getValue();
+					writer.write(entry.size + "\t" + entry.mtime + "\t" + entry.hash + "\t" + entry.status + "\t" + path);
+					writer.newLine();
+				}
+			}
+			Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	/**
+	 * @return The number of files skipped because they did not change.
+	 */
+	long getSkippedFiles() {
+		return skippedFiles.sum();
+	}
+
+	/**
+	 * Computes the SHA-256 hash of the file content.
+	 *
+	 * @param file The file to hash.
+	 * @return The hash as lower case hex string.
+	 * @throws IOException If the file cannot be read.
+	 */
+	static String hash(File file) throws IOException {
+		MessageDigest digest = newDigest();
+		byte[] buffer = new byte[64 * 1024];
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * @return A new SHA-256 digest.
+	 */
+	static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Converts bytes to a lower case hex string.
+	 *
+	 * @param bytes The bytes to convert.
+	 * @return The hex string.
+	 */
+	static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Size, modification time and hash of the bytes a fix has checked or written,
+	 * filled in by {@link FixForXmlFiles#fix(File, Fingerprint)}.
+	 */
+	static class Fingerprint {
+		private long size;
+		private long mtime;
+		private String hash;
+
+		/**
+		 * Sets the state of the processed bytes.
+		 *
+		 * @param size  The number of bytes.
+		 * @param mtime The modification time of the file in milliseconds.
+		 * @param hash  The SHA-256 hash of the bytes as lower case hex string.
+		 */
+		void set(long size, long mtime, String hash) {
+			this.size = size;
+			this.mtime = mtime;
+			this.hash = hash;
+		}
+
+		/**
+		 * @return True if the fingerprint was taken.
+		 */
+		boolean isSet() {
+			return hash != null;
+		}
+	}
+
+	/**
+	 * State of a single file in the manifest.
+	 */
+	private static class Entry {
+		private final long size;
+		private final long mtime;
+		private final String hash;
+		private final FixStatus status;
+
+		Entry(long size, long mtime, String hash, FixStatus status) {
+			this.size = size;
+			this.mtime = mtime;
+			this.hash = hash;
+			this.status = status;
+		}
+	}
+}
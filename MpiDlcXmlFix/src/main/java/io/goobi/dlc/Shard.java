@@ -0,0 +1,87 @@
+package io.goobi.dlc;
+
+import java.io.File;
+
+/**
+ * One of n disjoint parts of a repository, so a fix job can be spread over
+ * several hosts mounting the same storage. A meta.xml belongs to the shard
+ * selected by the hash of its process directory name, the process ID.
+ * {@link String#hashCode()} is specified by the language, so every host and
+ * every later run assigns a process to the same shard.
+ */
+class Shard {
+	private final int index;
+	private final int count;
+
+	/**
+	 * Creates the shard with the given number.
+	 *
+	 * @param index The number of the shard, from 1 to count.
+	 * @param count The number of shards.
+	 */
+	Shard(int index, int count) {
+		if (count < 1 || index < 1 || index > count) {
+			throw new IllegalArgumentException("Invalid shard " + index + "/" + count);
+		}
+		this.index = index;
+		this.count = count;
+	}
+
+	/**
+	 * Parses a shard given as "i/n", e.g. "2/4" for the second of four shards.
+	 *
+	 * @param value The shard as given on the command line.
+	 * @return The parsed shard.
+	 * @throws IllegalArgumentException If the value is not a valid shard.
+	 */
+	static Shard parse(String value) {
+		int slash = value.indexOf('/');
+		try {
+			if (slash > 0) {
+				return new Shard(Integer.parseInt(value.substring(0, slash)),
+						Integer.parseInt(value.substring(slash + 1)));
+			}
+		} catch (NumberFormatException e) {
+			// Handled below
+		}
+		throw new IllegalArgumentException("--shard expects i/n with 1 <= i <= n: " + value);
+	}
+
+	/**
+	 * @param xmlFile A meta.xml inside its process directory.
+	 * @return True if the process of the file belongs to this shard.
+	 */
+	boolean contains(File xmlFile) {
+		File processDirectory = xmlFile.getAbsoluteFile().getParentFile();
+		return processDirectory != null && indexOf(processDirectory.getName(), count) == index;
+	}
+
+	/**
+	 * @param processID  The name of a process directory.
+	 * @param shardCount The number of shards.
+	 * @return The number of the shard the process belongs to, from 1 to
+	 *         shardCount.
+	 */
+	static int indexOf(String processID, int shardCount) {
+		return Math.floorMod(processID.hashCode(), shardCount) + 1;
+	}
+
+	/**
+	 * @return The number of the shard, from 1 to {@link #getCount()}.
+	 */
+	int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return The number of shards.
+	 */
+	int getCount() {
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return index + "/" + count;
+	}
+}
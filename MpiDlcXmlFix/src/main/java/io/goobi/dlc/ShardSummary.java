@@ -0,0 +1,140 @@
+package io.goobi.dlc;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Counts and process IDs of one run, written with {@code --summary} so the
+ * runs of all shards can be combined by {@link MergeShardSummaries}. The
+ * summary is a properties file:
+ *
+ * <pre>
+ * shard=2/4
+ * filesWithDuplicates=3
+ * totalDuplicates=17
+ * processIds=185447 185681 184595
+ * report=/data/fix/report-2.jsonl
+ * </pre>
+ */
+class ShardSummary {
+	private static final String SHARD = "shard";
+	private static final String FILES_WITH_DUPLICATES = "filesWithDuplicates";
+	private static final String TOTAL_DUPLICATES = "totalDuplicates";
+	private static final String PROCESS_IDS = "processIds";
+	private static final String REPORT = "report";
+
+	private final String shard;
+	private final long filesWithDuplicates;
+	private final long totalDuplicates;
+	private final List<String> processIDs;
+	private final String report;
+
+	/**
+	 * Creates the summary of a run.
+	 *
+	 * @param shard               The shard of the run as "i/n", "1/1" if not
+	 *                            sharded.
+	 * @param filesWithDuplicates The number of files with duplicates.
+	 * @param totalDuplicates     The number of duplicate hrefs.
+	 * @param processIDs          The IDs of the processes with duplicates, in the
+	 *                            order of the Goobi query.
+	 * @param report              The JSON lines report of the run, null if none
+	 *                            was written to a file.
+	 */
+	ShardSummary(String shard, long filesWithDuplicates, long totalDuplicates, List<String> processIDs,
+			String report) {
+		this.shard = shard;
+		this.filesWithDuplicates = filesWithDuplicates;
+		this.totalDuplicates = totalDuplicates;
+		this.processIDs = processIDs;
+		this.report = report;
+	}
+
+	/**
+	 * Reads a summary.
+	 *
+	 * @param summaryFile The summary file.
+	 * @return The summary.
+	 * @throws IOException If the file cannot be read or misses a count.
+	 */
+	static ShardSummary load(Path summaryFile) throws IOException {
+		Properties properties = new Properties();
+		try (Reader reader = Files.newBufferedReader(summaryFile, StandardCharsets.UTF_8)) {
+			properties.load(reader);
+		}
+		String processIDs = properties.getProperty(PROCESS_IDS, "").trim();
+		try {
+			return new ShardSummary(properties.getProperty(SHARD, "1/1"),
+					Long.parseLong(properties.getProperty(FILES_WITH_DUPLICATES)),
+					Long.parseLong(properties.getProperty(TOTAL_DUPLICATES)),
+					processIDs.isEmpty() ? new ArrayList<>() : Arrays.asList(processIDs.split(" +")),
+					properties.getProperty(REPORT));
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid summary " + summaryFile + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Writes the summary, an existing file is replaced.
+	 *
+	 * @param summaryFile The summary file.
+	 * @throws IOException If the file cannot be written.
+	 */
+	void save(Path summaryFile) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty(SHARD, shard);
+		properties.setProperty(FILES_WITH_DUPLICATES, Long.toString(filesWithDuplicates));
+		properties.setProperty(TOTAL_DUPLICATES, Long.toString(totalDuplicates));
+		properties.setProperty(PROCESS_IDS, String.join(" ", processIDs));
+		if (report != null) {
+			properties.setProperty(REPORT, report);
+		}
+		try (Writer writer = Files.newBufferedWriter(summaryFile, StandardCharsets.UTF_8)) {
+			properties.store(writer, "MpiDlcXmlFix shard summary");
+		}
+	}
+
+	/**
+	 * @return The shard of the run as "i/n".
+	 */
+	String getShard() {
+		return shard;
+	}
+
+	/**
+	 * @return The number of files with duplicates.
+	 */
+	long getFilesWithDuplicates() {
+		return filesWithDuplicates;
+	}
+
+	/**
+	 * @return The number of duplicate hrefs.
+	 */
+	long getTotalDuplicates() {
+		return totalDuplicates;
+	}
+
+	/**
+	 * @return The IDs of the processes with duplicates.
+	 */
+	List<String> getProcessIDs() {
+		return processIDs;
+	}
+
+	/**
+	 * @return The JSON lines report of the run, or null if none was written to a
+	 *         file.
+	 */
+	String getReport() {
+		return report;
+	}
+}
@@ -0,0 +1,203 @@
+package io.goobi.dlc;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Collects the time spent in each stage of the fix together with the bytes
+ * handled and the size of the parsed documents. The latencies are kept in
+ * histograms with power of two buckets, so recording is a few striped counter
+ * updates and safe to call from all worker threads.
+ */
+class StageStatistics {
+	private static final Logger logger = LogManager.getLogger(StageStatistics.class);
+
+	/**
+	 * The stages of the fix of one file.
+	 */
+	enum Stage {
+		// Walking the directory until the next meta.xml is found
+		DISCOVER,
+		// Streaming check for duplicate hrefs
+		PRE_SCAN,
+		// Waiting until the DOM fits into the heap budget
+		HEAP_WAIT,
+		// Building the DOM
+		PARSE,
+		// Collecting the hrefs from the DOM
+		COLLECT,
+		// Finding duplicates and planning their removal
+		PLAN,
+		// Creating the backup or writing the undo journal
+		BACKUP,
+		// Removing and rewriting elements
+		APPLY,
+		// Writing the fixed file
+		SAVE
+	}
+
+	private final Histogram[] histograms = new Histogram[Stage.values().length];
+	private final LongAdder domElements = new LongAdder();
+	private final LongAccumulator maxDomElements = new LongAccumulator(Math::max, 0);
+	private final long startTime = System.nanoTime();
+
+	/**
+	 * Creates empty statistics.
+	 */
+	StageStatistics() {
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new Histogram();
+		}
+	}
+
+	/**
+	 * Records one run of a stage.
+	 *
+	 * @param stage The stage.
+	 * @param nanos The time spent in the stage.
+	 * @param bytes The bytes read or written by the stage, 0 if none.
+	 */
+	void record(Stage stage, long nanos, long bytes) {
+		histograms[stage.ordinal()].record(nanos, bytes);
+	}
+
+	/**
+	 * Records the size of a parsed document.
+	 *
+	 * @param elements The number of elements in the document.
+	 */
+	void recordDom(long elements) {
+		domElements.add(elements);
+		maxDomElements.accumulate(elements);
+	}
+
+	/**
+	 * Returns a file source that records the time spent walking between two
+	 * files as {@link Stage#DISCOVER}. The time the consumer needs is not
+	 * included.
+	 *
+	 * @param source The source to measure.
+	 * @return The measured source.
+	 */
+	FixRunner.FileSource timeDiscovery(FixRunner.FileSource source) {
+		return consumer -> {
+			long[] last = { System.nanoTime() };
+			source.forEach(file -> {
+				record(Stage.DISCOVER, System.nanoTime() - last[0], 0);
+				consumer.accept(file);
+				last[0] = System.nanoTime();
+			});
+		};
+	}
+
+	/**
+	 * @param stage The stage.
+	 * @return The number of times the stage was run.
+	 */
+	long getCount(Stage stage) {
+		return histograms[stage.ordinal()].count.sum();
+	}
+
+	/**
+	 * @param stage The stage.
+	 * @return The bytes read or written by the stage.
+	 */
+	long getBytes(Stage stage) {
+		return histograms[stage.ordinal()].bytes.sum();
+	}
+
+	/**
+	 * Logs one line per stage that was run, followed by the DOM sizes and the
+	 * wall clock time of the run.
+	 */
+	void logSummary() {
+		for (Stage stage : Stage.values()) {
+			Histogram histogram = histograms[stage.ordinal()];
+			long count = histogram.count.sum();
+			if (count == 0) {
+				continue;
+			}
+			logger.info(String.format("Stage %-9s count=%d total=%.1fms mean=%.3fms p50<%s p90<%s p99<%s max=%.3fms bytes=%d",
+					stage, count, millis(histogram.nanos.sum()), millis(histogram.nanos.sum()) / count,
+					formatNanos(histogram.percentile(0.5)), formatNanos(histogram.percentile(0.9)),
+					formatNanos(histogram.percentile(0.99)), millis(histogram.max.get()), histogram.bytes.sum()));
+		}
+		long parsed = getCount(Stage.PARSE);
+		if (parsed > 0) {
+			logger.info("DOM elements: mean=" + domElements.sum() / parsed + " max=" + maxDomElements.get());
+		}
+		logger.info(String.format("Wall clock time: %.1fs", (System.nanoTime() - startTime) / 1e9));
+	}
+
+	/**
+	 * @param nanos A duration in nanoseconds.
+	 * @return The duration in milliseconds.
+	 */
+	private static double millis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/**
+	 * @param nanos A bucket bound in nanoseconds.
+	 * @return The bound in milliseconds, e.g. "1.049ms".
+	 */
+	private static String formatNanos(long nanos) {
+		return String.format("%.3fms", millis(nanos));
+	}
+
+	/**
+	 * Latency histogram of one stage. Bucket i counts durations below 2^i
+	 * nanoseconds and at least 2^(i-1).
+	 */
+	private static class Histogram {
+		private final LongAdder[] buckets = new LongAdder[Long.SIZE];
+		private final LongAdder count = new LongAdder();
+		private final LongAdder nanos = new LongAdder();
+		private final LongAdder bytes = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+		Histogram() {
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		/**
+		 * Records one duration.
+		 *
+		 * @param duration The duration in nanoseconds.
+		 * @param byteCount The bytes handled.
+		 */
+		void record(long duration, long byteCount) {
+			long positive = Math.max(0, duration);
+			buckets[Math.min(Long.SIZE - 1, Long.SIZE - Long.numberOfLeadingZeros(positive))].increment();
+			count.increment();
+			nanos.add(positive);
+			bytes.add(byteCount);
+			max.accumulate(positive);
+		}
+
+		/**
+		 * Returns the upper bound of the bucket holding the given percentile.
+		 *
+		 * @param fraction The percentile as fraction, e.g. 0.99.
+		 * @return The upper bound in nanoseconds.
+		 */
+		long percentile(double fraction) {
+			long total = count.sum();
+			long rank = (long) Math.ceil(total * fraction);
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i].sum();
+				if (seen >= rank) {
+					return 1L << i;
+				}
+			}
+			return Long.MAX_VALUE;
+		}
+	}
+}
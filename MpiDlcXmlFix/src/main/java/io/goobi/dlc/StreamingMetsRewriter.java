@@ -0,0 +1,441 @@
+package io.goobi.dlc;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Fixes duplicates without building a DOM. A first StAX pass indexes only the
+ * hrefs, the mets:file IDs and the fptr FILEIDs and plans the same changes as
+ * {@link DuplicateFixPlan}. The second pass copies the events of the file to
+ * the output, skipping the removed mets:file, mets:div and mets:smLink
+ * elements, rewriting the structLink references to removed divs and
+ * renumbering every ORDER attribute.
+ *
+ * <p>
+ * The memory needed is the small index of the fileSec and the physical
+ * structMap, the MODS sections and the structLink are never held. The original
+ * formatting is kept, only the indentation in front of removed elements is
+ * dropped as well.
+ * </p>
+ */
+class StreamingMetsRewriter {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// One factory per thread, the JDK factories do not promise thread safety
+	private static final ThreadLocal<XMLInputFactory> inputFactories = ThreadLocal
+			.withInitial(HrefPreScanner::createInputFactory);
+	private static final ThreadLocal<XMLOutputFactory> outputFactories = ThreadLocal
+			.withInitial(XMLOutputFactory::newInstance);
+
+	/**
+	 * Reads the file once and plans the changes for its duplicates.
+	 *
+	 * @param xmlFile The meta.xml to plan.
+	 * @return The planned changes, empty if there are no duplicates.
+	 * @throws IOException        If the file cannot be read.
+	 * @throws XMLStreamException If the file is not well-formed XML.
+	 */
+	Plan plan(File xmlFile) throws IOException, XMLStreamException {
+		try (InputStream in = new BufferedInputStream(new FileInputStream(xmlFile), BUFFER_SIZE)) {
+			return plan(in);
+		}
+	}
+
+	/**
+	 * Reads the content once and plans the changes for its duplicates.
+	 *
+	 * @param in The XML content.
+	 * @return The planned changes, empty if there are no duplicates.
+	 * @throws XMLStreamException If the content is not well-formed XML.
+	 */
+	Plan plan(InputStream in) throws XMLStreamException {
+		HrefTable hrefs = new HrefTable(1024);
+		// In the order of their second occurrence, like the DOM based fix
+		List<String> duplicateHrefs = new ArrayList<>();
+		Map<String, List<String>> fileIDsByHref = new HashMap<>();
+		Map<String, List<String>> physIDsByFileID = new HashMap<>();
+		// ID attribute of every open element, null for elements without ID
+		List<String> openIDs = new ArrayList<>();
+
+		XMLStreamReader reader = inputFactories.get().createXMLStreamReader(in);
+		try {
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String parentID = openIDs.isEmpty() ? null : openIDs.get(openIDs.size() - 1);
+					String id = null;
+					for (int i = 0; i < reader.getAttributeCount(); i++) {
+						String name = reader.getAttributeLocalName(i);
+						String value = reader.getAttributeValue(i);
+						if ("ID".equals(name)) {
+							id = value;
+						} else if ("href".equals(name)) {
+							if (hrefs.add(value) == 2) {
+								duplicateHrefs.add(value);
+							}
+							if (parentID != null) {
+								// mets:FLocat xlink:href -> ID of the mets:file
+								add(fileIDsByHref, value, parentID);
+							}
+						} else if ("FILEID".equals(name) && parentID != null) {
+							// mets:fptr FILEID -> ID of the physical mets:div
+							add(physIDsByFileID, value, parentID);
+						}
+					}
+					openIDs.add(id);
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					openIDs.remove(openIDs.size() - 1);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		Plan plan = new Plan();
+		for (String href : duplicateHrefs) {
+			plan.addDuplicate(href, valuesOf(fileIDsByHref, href), physIDsByFileID);
+		}
+		return plan;
+	}
+
+	/**
+	 * Copies the file to the output and applies the planned changes on the way.
+	 *
+	 * @param xmlFile The meta.xml the plan was made for.
+	 * @param plan    The planned changes.
+	 * @param out     Receives the fixed document as UTF-8.
+	 * @throws IOException        If the file cannot be read.
+	 * @throws XMLStreamException If the file cannot be read or written as XML.
+	 */
+	void rewrite(File xmlFile, Plan plan, OutputStream out) throws IOException, XMLStreamException {
+		try (InputStream in = new BufferedInputStream(new FileInputStream(xmlFile), BUFFER_SIZE)) {
+			rewrite(in, plan, out);
+		}
+	}
+
+	/**
+	 * Copies the content to the output and applies the planned changes on the way.
+	 *
+	 * @param in   The XML content the plan was made for.
+	 * @param plan The planned changes.
+	 * @param out  Receives the fixed document as UTF-8.
+	 * @throws XMLStreamException If the content cannot be read or written as XML.
+	 */
+	void rewrite(InputStream in, Plan plan, OutputStream out) throws XMLStreamException {
+		XMLStreamReader reader = inputFactories.get().createXMLStreamReader(in);
+		XMLStreamWriter writer = outputFactories.get().createXMLStreamWriter(out, "UTF-8");
+		try {
+			new Copy(reader, writer, plan).run();
+			writer.flush();
+		} finally {
+			reader.close();
+			writer.close();
+		}
+	}
+
+	/**
+	 * Adds a value to the list of a key.
+	 *
+	 * @param map   The map of lists.
+	 * @param key   The key.
+	 * @param value The value to add.
+	 */
+	private static void add(Map<String, List<String>> map, String key, String value) {
+		List<String> values = map.get(key);
+		if (values == null) {
+			values = new ArrayList<>(1);
+			map.put(key, values);
+		}
+		values.add(value);
+	}
+
+	/**
+	 * @param map The map of lists.
+	 * @param key The key.
+	 * @return The list of the key, empty if there is none.
+	 */
+	private static List<String> valuesOf(Map<String, List<String>> map, String key) {
+		List<String> values = map.get(key);
+		return values != null ? values : Collections.<String>emptyList();
+	}
+
+	/**
+	 * Copies the events of one document with the cursor API, which keeps the
+	 * order of the attributes. A start tag is written once the next event is
+	 * known, so empty elements stay empty elements.
+	 */
+	private static class Copy {
+		private final XMLStreamReader reader;
+		private final XMLStreamWriter writer;
+		private final Plan plan;
+		// Whitespace is held back until it is known whether the next element is
+		// removed
+		private final StringBuilder pendingWhitespace = new StringBuilder();
+		// Start tag that is not written yet
+		private boolean pendingStart;
+		private String prefix;
+		private String localName;
+		private String namespaceURI;
+		private final List<String[]> namespaces = new ArrayList<>();
+		private final List<String[]> attributes = new ArrayList<>();
+		private int orderValue;
+
+		Copy(XMLStreamReader reader, XMLStreamWriter writer, Plan plan) {
+			this.reader = reader;
+			this.writer = writer;
+			this.plan = plan;
+		}
+
+		/**
+		 * Copies the whole document.
+		 *
+		 * @throws XMLStreamException If the content cannot be read or written.
+		 */
+		void run() throws XMLStreamException {
+			String version = reader.getVersion();
+			// The output is always UTF-8, whatever the input was
+			writer.writeStartDocument("UTF-8", version != null ? version : "1.0");
+			writer.writeCharacters("\n");
+			// Depth inside a removed element, 0 outside
+			int skippedDepth = 0;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (skippedDepth > 0) {
+					if (event == XMLStreamConstants.START_ELEMENT) {
+						skippedDepth++;
+					} else if (event == XMLStreamConstants.END_ELEMENT) {
+						skippedDepth--;
+					}
+					continue;
+				}
+				switch (event) {
+				case XMLStreamConstants.START_ELEMENT:
+					if (plan.isRemoved(reader)) {
+						// Drop the element together with its indentation
+						pendingWhitespace.setLength(0);
+						skippedDepth = 1;
+					} else {
+						writePending(false);
+						readStart();
+					}
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					if (pendingStart && pendingWhitespace.length() == 0) {
+						writePending(true);
+					} else {
+						writePending(false);
+						writer.writeEndElement();
+					}
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.SPACE:
+					if (reader.isWhiteSpace()) {
+						pendingWhitespace.append(reader.getTextCharacters(), reader.getTextStart(),
+								reader.getTextLength());
+					} else {
+						writePending(false);
+						writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(),
+								reader.getTextLength());
+					}
+					break;
+				case XMLStreamConstants.CDATA:
+					writePending(false);
+					writer.writeCData(reader.getText());
+					break;
+				case XMLStreamConstants.COMMENT:
+					writePending(false);
+					writer.writeComment(reader.getText());
+					break;
+				case XMLStreamConstants.PROCESSING_INSTRUCTION:
+					writePending(false);
+					writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+					break;
+				case XMLStreamConstants.ENTITY_REFERENCE:
+					writePending(false);
+					writer.writeEntityRef(reader.getLocalName());
+					break;
+				case XMLStreamConstants.DTD:
+					writePending(false);
+					writer.writeDTD(reader.getText());
+					break;
+				default:
+					// START_DOCUMENT is written above, END_DOCUMENT below
+					break;
+				}
+			}
+			writePending(false);
+			writer.writeEndDocument();
+		}
+
+		/**
+		 * Remembers the current start tag with renumbered ORDER and rewritten
+		 * structLink values.
+		 */
+		private void readStart() {
+			pendingStart = true;
+			prefix = reader.getPrefix();
+			localName = reader.getLocalName();
+			namespaceURI = reader.getNamespaceURI();
+			namespaces.clear();
+			for (int i = 0; i < reader.getNamespaceCount(); i++) {
+				namespaces.add(new String[] { reader.getNamespacePrefix(i), reader.getNamespaceURI(i) });
+			}
+			attributes.clear();
+			boolean smLink = "smLink".equals(localName);
+			for (int i = 0; i < reader.getAttributeCount(); i++) {
+				String name = reader.getAttributeLocalName(i);
+				String value = reader.getAttributeValue(i);
+				if ("ORDER".equals(name)) {
+					orderValue++;
+					value = Integer.toString(orderValue);
+				} else if (smLink && plan.keptPhysIDs.containsKey(value)) {
+					value = plan.keptPhysIDs.get(value);
+				}
+				attributes.add(new String[] { reader.getAttributePrefix(i), reader.getAttributeNamespace(i), name,
+						value });
+			}
+		}
+
+		/**
+		 * Writes the pending start tag and the pending whitespace.
+		 *
+		 * @param empty True if the element has no content and is closed right away.
+		 * @throws XMLStreamException If the XML cannot be written.
+		 */
+		private void writePending(boolean empty) throws XMLStreamException {
+			if (pendingStart) {
+				pendingStart = false;
+				String elementPrefix = prefix != null ? prefix : "";
+				String elementNamespace = namespaceURI != null ? namespaceURI : "";
+				if (empty) {
+					writer.writeEmptyElement(elementPrefix, localName, elementNamespace);
+				} else {
+					writer.writeStartElement(elementPrefix, localName, elementNamespace);
+				}
+				for (String[] namespace : namespaces) {
+					if (namespace[0] == null || namespace[0].isEmpty()) {
+						writer.writeDefaultNamespace(namespace[1]);
+					} else {
+						writer.writeNamespace(namespace[0], namespace[1]);
+					}
+				}
+				for (String[] attribute : attributes) {
+					if (attribute[1] == null || attribute[1].isEmpty()) {
+						writer.writeAttribute(attribute[2], attribute[3]);
+					} else {
+						writer.writeAttribute(attribute[0], attribute[1], attribute[2], attribute[3]);
+					}
+				}
+			}
+			if (pendingWhitespace.length() > 0) {
+				writer.writeCharacters(pendingWhitespace.toString());
+				pendingWhitespace.setLength(0);
+			}
+		}
+	}
+
+	/**
+	 * The changes planned by the index pass, keyed by ID values only.
+	 */
+	static class Plan {
+		private final List<String> duplicateHrefs = new ArrayList<>();
+		private final List<String> removedIDs = new ArrayList<>();
+		private final Set<String> removedIDSet = new HashSet<>();
+		// Removed PHYS ID -> PHYS ID that is kept instead
+		private final Map<String, String> keptPhysIDs = new HashMap<>();
+
+		/**
+		 * Adds the changes for one duplicate href. The first mets:file and physical
+		 * mets:div are kept, all others are removed.
+		 *
+		 * @param href            The duplicate href value.
+		 * @param fileIDValues    The IDs of the mets:file elements of the href.
+		 * @param physIDsByFileID The IDs of the physical divs per mets:file ID.
+		 */
+		private void addDuplicate(String href, List<String> fileIDValues, Map<String, List<String>> physIDsByFileID) {
+			duplicateHrefs.add(href);
+			List<String> physIDValues = new ArrayList<>();
+			for (String fileIDValue : fileIDValues) {
+				physIDValues.addAll(valuesOf(physIDsByFileID, fileIDValue));
+			}
+			for (int i = 1; i < fileIDValues.size(); i++) {
+				removeID(fileIDValues.get(i));
+			}
+			for (int i = 1; i < physIDValues.size(); i++) {
+				removeID(physIDValues.get(i));
+				keptPhysIDs.put(physIDValues.get(i), physIDValues.get(0));
+			}
+		}
+
+		/**
+		 * @param id The ID of the elements to remove.
+		 */
+		private void removeID(String id) {
+			removedIDs.add(id);
+			removedIDSet.add(id);
+		}
+
+		/**
+		 * Checks whether an element is removed: elements with a removed ID and
+		 * smLinks pointing to a removed div.
+		 *
+		 * @param element The reader positioned on the start of the element.
+		 * @return True if the element and its content are dropped.
+		 */
+		private boolean isRemoved(XMLStreamReader element) {
+			if (removedIDSet.isEmpty()) {
+				return false;
+			}
+			boolean smLink = "smLink".equals(element.getLocalName());
+			for (int i = 0; i < element.getAttributeCount(); i++) {
+				String name = element.getAttributeLocalName(i);
+				String value = element.getAttributeValue(i);
+				if ("ID".equals(name) && removedIDSet.contains(value)) {
+					return true;
+				}
+				if (smLink && "to".equals(name) && keptPhysIDs.containsKey(value)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @return True if there are no duplicates.
+		 */
+		boolean isEmpty() {
+			return duplicateHrefs.isEmpty();
+		}
+
+		/**
+		 * @return The duplicate hrefs in the order they were found.
+		 */
+		List<String> getDuplicateHrefs() {
+			return duplicateHrefs;
+		}
+
+		/**
+		 * @return The IDs of the mets:file and mets:div elements that are removed.
+		 */
+		List<String> getRemovedIDs() {
+			return removedIDs;
+		}
+	}
+}
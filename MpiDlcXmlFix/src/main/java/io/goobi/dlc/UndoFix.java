@@ -0,0 +1,106 @@
+package io.goobi.dlc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jdom2.Document;
+import org.jdom2.JDOMException;
+
+/**
+ * Reverts the fixes recorded in an undo journal written with
+ * {@code FixForXmlFiles --undo-journal}. The files are processed in reverse
+ * order. A file is only changed if it is still the one the fix saved, files
+ * that were edited since are reported and left alone.
+ *
+ * <pre>
+ * UndoFix &lt;undo journal&gt;
+ * </pre>
+ */
+public class UndoFix {
+	private static final Logger logger = LogManager.getLogger(UndoFix.class);
+
+	private final FixForXmlFiles fixer = new FixForXmlFiles();
+	private int undoneFiles;
+	private int skippedFiles;
+
+	/**
+	 * The main entry point of the application.
+	 *
+	 * @param args Command line arguments - the undo journal.
+	 */
+	public static void main(String[] args) {
+		if (args.length != 1) {
+			logger.error("Please specify only one undo journal.");
+			return;
+		}
+		Path journalFile = Paths.get(args[0]);
+		List<UndoJournal.Changes> files;
+		try {
+			files = UndoJournal.read(journalFile);
+		} catch (IOException e) {
+			logger.error("Error reading undo journal " + journalFile + ": " + e.getMessage());
+			return;
+		}
+
+		UndoFix undo = new UndoFix();
+		undo.undoAll(files);
+		logger.info("Number of files restored: " + undo.undoneFiles);
+		logger.info("Number of files skipped: " + undo.skippedFiles);
+	}
+
+	/**
+	 * Reverts the changes of all files, the last fixed file first.
+	 *
+	 * @param files The changes read from the journal.
+	 */
+	void undoAll(List<UndoJournal.Changes> files) {
+		for (int i = files.size() - 1; i >= 0; i--) {
+			if (undo(files.get(i))) {
+				undoneFiles++;
+			} else {
+				skippedFiles++;
+			}
+		}
+	}
+
+	/**
+	 * Reverts the changes of one file.
+	 *
+	 * @param changes The changes of the file.
+	 * @return True if the file was restored, false if it was skipped.
+	 */
+	boolean undo(UndoJournal.Changes changes) {
+		File xmlFile = new File(changes.getPath());
+		try {
+			String hash = ScanManifest.hash(xmlFile);
+			if (hash.equals(changes.getOriginalHash())) {
+				// The run stopped before the fixed file was saved
+				logger.info("Not changed by the fix: " + xmlFile);
+				return false;
+			}
+			if (changes.getFixedHash() == null) {
+				logger.warn("Save of " + xmlFile + " was not confirmed, undoing anyway");
+			} else if (!hash.equals(changes.getFixedHash())) {
+				logger.error("Changed after the fix, not undone: " + xmlFile);
+				return false;
+			}
+
+			Document document = fixer.parseDocument(xmlFile);
+			changes.undo(document.getRootElement());
+			if (!fixer.saveDocument(document, xmlFile)) {
+				return false;
+			}
+			logger.info("Restored " + changes.getRemovedElements() + " elements and " + changes.getChangedAttributes()
+					+ " attributes: " + xmlFile);
+			return true;
+		} catch (IOException | JDOMException e) {
+			logger.error("Error undoing " + xmlFile + ": " + e.getMessage());
+			return false;
+		}
+	}
+}
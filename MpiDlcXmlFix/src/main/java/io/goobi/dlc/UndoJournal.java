@@ -0,0 +1,456 @@
+package io.goobi.dlc;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jdom2.Attribute;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+
+/**
+ * Records the changes of a run so they can be undone by {@link UndoFix}
+ * instead of keeping a full backup of every fixed file. Only the removed
+ * elements and the old values of the changed attributes are written, which is
+ * a small fraction of a meta.xml.
+ *
+ * <p>
+ * The journal is a tab separated text file. The changes of a file are written
+ * and flushed before the file is replaced and are confirmed with the hash of
+ * the fixed file afterwards:
+ * </p>
+ *
+ * <pre>
+ * FILE    path         sha256 of the original
+ * REMOVE  0/4/17       &lt;mets:file ID="FILE_0057" ...&gt;...&lt;/mets:file&gt;
+ * ATTR    0/2/0/56     ORDER    57
+ * DONE    path         sha256 of the fixed file
+ * </pre>
+ *
+ * <p>
+ * Elements are addressed by the positions among the element children from the
+ * root down, as they were in the original document. Tabs, line breaks and
+ * backslashes in the values are escaped.
+ * </p>
+ */
+class UndoJournal implements Closeable {
+	private static final String FILE = "FILE";
+	private static final String REMOVE = "REMOVE";
+	private static final String ATTR = "ATTR";
+	private static final String DONE = "DONE";
+
+	private final Writer writer;
+
+	/**
+	 * Opens the journal for appending, so a resumed run keeps the changes of the
+	 * interrupted one.
+	 *
+	 * @param journalFile The journal file.
+	 * @return The opened journal.
+	 * @throws IOException If the journal cannot be written.
+	 */
+	static UndoJournal open(Path journalFile) throws IOException {
+		return new UndoJournal(Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+	}
+
+	/**
+	 * Creates a journal writing to the given writer.
+	 *
+	 * @param writer The writer of the journal file.
+	 */
+	UndoJournal(Writer writer) {
+		this.writer = writer;
+	}
+
+	/**
+	 * Starts recording the changes of a file before it is fixed.
+	 *
+	 * @param xmlFile The meta.xml that is going to be fixed.
+	 * @return The empty changes of the file.
+	 * @throws IOException If the original cannot be hashed.
+	 */
+	Changes begin(File xmlFile) throws IOException {
+		return new Changes(xmlFile.getAbsolutePath(), ScanManifest.hash(xmlFile));
+	}
+
+	/**
+	 * Starts recording the changes of a file whose content was already read, the
+	 * original is hashed from memory.
+	 *
+	 * @param content The content of the meta.xml that is going to be fixed.
+	 * @return The empty changes of the file.
+	 * @throws IOException If the rest of the original cannot be read.
+	 */
+	Changes begin(FileContent content) throws IOException {
+		return new Changes(content.getFile().getAbsolutePath(), content.hash());
+	}
+
+	/**
+	 * Writes the changes of a file. Must be called before the fixed file replaces
+	 * the original, so a crash in between still leaves a way back.
+	 *
+	 * @param changes The recorded changes.
+	 * @throws IOException If the journal cannot be written.
+	 */
+	void writeAhead(Changes changes) throws IOException {
+		StringBuilder lines = new StringBuilder(1024);
+		appendLine(lines, FILE, changes.path, changes.originalHash);
+		for (Removal removal : changes.removals) {
+			appendLine(lines, REMOVE, removal.path, removal.xml);
+		}
+		for (AttributeChange change : changes.attributeChanges) {
+			appendLine(lines, ATTR, change.path, change.name, change.oldValue);
+		}
+		write(lines);
+	}
+
+	/**
+	 * Confirms that the fixed file was saved.
+	 *
+	 * @param changes The changes written by {@link #writeAhead(Changes)}.
+	 * @param xmlFile The saved meta.xml.
+	 * @throws IOException If the file cannot be hashed or the journal cannot be
+	 *                     written.
+	 */
+	void commit(Changes changes, File xmlFile) throws IOException {
+		StringBuilder line = new StringBuilder(256);
+		appendLine(line, DONE, changes.path, ScanManifest.hash(xmlFile));
+		write(line);
+	}
+
+	/**
+	 * Appends lines to the journal and flushes them. Called concurrently by the
+	 * worker threads, the lines of one call are never interleaved with others.
+	 *
+	 * @param lines The lines to write.
+	 * @throws IOException If the journal cannot be written.
+	 */
+	private void write(CharSequence lines) throws IOException {
+		synchronized (writer) {
+			writer.append(lines);
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Reads all files of a journal.
+	 *
+	 * @param journalFile The journal file.
+	 * @return The changes of every file in the order they were written.
+	 * @throws IOException If the journal cannot be read or is damaged.
+	 */
+	static List<Changes> read(Path journalFile) throws IOException {
+		Map<String, Changes> files = new LinkedHashMap<>();
+		List<Changes> result = new ArrayList<>();
+		try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+			Changes current = null;
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				String[] fields = line.split("\t", -1);
+				for (int i = 0; i < fields.length; i++) {
+					fields[i] = unescape(fields[i]);
+				}
+				if (FILE.equals(fields[0]) && fields.length == 3) {
+					current = new Changes(fields[1], fields[2]);
+					files.put(current.path, current);
+					result.add(current);
+				} else if (REMOVE.equals(fields[0]) && fields.length == 3 && current != null) {
+					current.removals.add(new Removal(fields[1], fields[2]));
+				} else if (ATTR.equals(fields[0]) && fields.length == 4 && current != null) {
+					current.attributeChanges.add(new AttributeChange(fields[1], fields[2], fields[3]));
+				} else if (DONE.equals(fields[0]) && fields.length == 3 && files.containsKey(fields[1])) {
+					files.get(fields[1]).fixedHash = fields[2];
+				} else {
+					throw new IOException("Invalid undo journal line " + lineNumber + " in " + journalFile);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the path of an element child.
+	 *
+	 * @param parentPath The path of the parent, "" for the root.
+	 * @param index      The position of the child among the element children.
+	 * @return The path of the child.
+	 */
+	static String childPath(String parentPath, int index) {
+		return parentPath.isEmpty() ? Integer.toString(index) : parentPath + "/" + index;
+	}
+
+	/**
+	 * Returns the path of an element, counting the positions from the root down.
+	 *
+	 * @param element An element of the document.
+	 * @return The path of the element, "" for the root.
+	 */
+	static String pathOf(Element element) {
+		Element parent = element.getParentElement();
+		if (parent == null) {
+			return "";
+		}
+		return childPath(pathOf(parent), parent.getChildren().indexOf(element));
+	}
+
+	/**
+	 * Finds an element by its path.
+	 *
+	 * @param rootElement The root element of the document.
+	 * @param path        The path of the element.
+	 * @return The element, or null if the path does not exist.
+	 */
+	private static Element resolve(Element rootElement, String path) {
+		Element element = rootElement;
+		if (path.isEmpty()) {
+			return element;
+		}
+		for (String index : path.split("/")) {
+			List<Element> children = element.getChildren();
+			int i = Integer.parseInt(index);
+			if (i >= children.size()) {
+				return null;
+			}
+			element = children.get(i);
+		}
+		return element;
+	}
+
+	/**
+	 * Appends one journal line with escaped fields.
+	 *
+	 * @param lines  The lines being built.
+	 * @param type   The type of the line.
+	 * @param fields The values of the line.
+	 */
+	private static void appendLine(StringBuilder lines, String type, String... fields) {
+		lines.append(type);
+		for (String field : fields) {
+			lines.append('\t');
+			for (int i = 0; i < field.length(); i++) {
+				char c = field.charAt(i);
+				if (c == '\\') {
+					lines.append("\\\\");
+				} else if (c == '\t') {
+					lines.append("\\t");
+				} else if (c == '\n') {
+					lines.append("\\n");
+				} else if (c == '\r') {
+					lines.append("\\r");
+				} else {
+					lines.append(c);
+				}
+			}
+		}
+		lines.append('\n');
+	}
+
+	/**
+	 * Reverts the escaping of {@link #appendLine(StringBuilder, String, String...)}.
+	 *
+	 * @param field The escaped value.
+	 * @return The original value.
+	 */
+	private static String unescape(String field) {
+		if (field.indexOf('\\') < 0) {
+			return field;
+		}
+		StringBuilder value = new StringBuilder(field.length());
+		for (int i = 0; i < field.length(); i++) {
+			char c = field.charAt(i);
+			if (c == '\\' && i + 1 < field.length()) {
+				char escaped = field.charAt(++i);
+				value.append(escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+			} else {
+				value.append(c);
+			}
+		}
+		return value.toString();
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (writer) {
+			writer.close();
+		}
+	}
+
+	/**
+	 * The changes of one file.
+	 */
+	static class Changes {
+		private final String path;
+		private final String originalHash;
+		private final List<Removal> removals = new ArrayList<>();
+		private final List<AttributeChange> attributeChanges = new ArrayList<>();
+		private String fixedHash;
+
+		/**
+		 * Creates empty changes.
+		 *
+		 * @param path         The absolute path of the meta.xml.
+		 * @param originalHash The hash of the original file.
+		 */
+		Changes(String path, String originalHash) {
+			this.path = path;
+			this.originalHash = originalHash;
+		}
+
+		/**
+		 * Records an element before it is removed.
+		 *
+		 * @param elementPath The path of the element in the original document.
+		 * @param element     The element, still unchanged.
+		 */
+		void removed(String elementPath, Element element) {
+			// Raw output keeps the whitespace and declares the namespaces in use
+			removals.add(new Removal(elementPath, new XMLOutputter(Format.getRawFormat()).outputString(element)));
+		}
+
+		/**
+		 * Records the value of an attribute before it is changed.
+		 *
+		 * @param elementPath The path of the element in the original document.
+		 * @param attribute   The attribute, still unchanged.
+		 */
+		void attributeChanged(String elementPath, Attribute attribute) {
+			attributeChanges.add(new AttributeChange(elementPath, attribute.getQualifiedName(), attribute.getValue()));
+		}
+
+		/**
+		 * Reverts the changes in the fixed document. The removed elements are
+		 * inserted again in document order, which restores the original positions
+		 * the paths refer to, then the attributes get their old values back.
+		 *
+		 * @param rootElement The root element of the fixed document.
+		 * @throws IOException If the document does not match the journal.
+		 */
+		void undo(Element rootElement) throws IOException {
+			for (Removal removal : removals) {
+				int slash = removal.path.lastIndexOf('/');
+				Element parent = resolve(rootElement, slash < 0 ? "" : removal.path.substring(0, slash));
+				int index = Integer.parseInt(removal.path.substring(slash + 1));
+				if (parent == null || index > parent.getChildren().size()) {
+					throw new IOException("Cannot insert element at " + removal.path + " into " + path);
+				}
+				parent.getChildren().add(index, parseElement(removal.xml));
+			}
+			for (AttributeChange change : attributeChanges) {
+				Element element = resolve(rootElement, change.path);
+				Attribute attribute = element == null ? null : findAttribute(element, change.name);
+				if (attribute == null) {
+					throw new IOException("Cannot restore " + change.name + " at " + change.path + " in " + path);
+				}
+				attribute.setValue(change.oldValue);
+			}
+		}
+
+		/**
+		 * @param xml A serialized element.
+		 * @return The parsed element, detached from its document.
+		 * @throws IOException If the element cannot be parsed.
+		 */
+		private static Element parseElement(String xml) throws IOException {
+			try {
+				return FixForXmlFiles.createSaxBuilder().build(new StringReader(xml)).detachRootElement();
+			} catch (JDOMException e) {
+				throw new IOException("Invalid element in undo journal: " + e.getMessage(), e);
+			}
+		}
+
+		/**
+		 * @param element       The element.
+		 * @param qualifiedName The qualified name of the attribute, e.g.
+		 *                      "xlink:from".
+		 * @return The attribute, or null if the element has none of that name.
+		 */
+		private static Attribute findAttribute(Element element, String qualifiedName) {
+			for (Attribute attribute : element.getAttributes()) {
+				if (qualifiedName.equals(attribute.getQualifiedName())) {
+					return attribute;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * @return The absolute path of the meta.xml.
+		 */
+		String getPath() {
+			return path;
+		}
+
+		/**
+		 * @return The hash of the original file.
+		 */
+		String getOriginalHash() {
+			return originalHash;
+		}
+
+		/**
+		 * @return The hash of the fixed file, or null if the run stopped before
+		 *         the save was confirmed.
+		 */
+		String getFixedHash() {
+			return fixedHash;
+		}
+
+		/**
+		 * @return The number of removed elements.
+		 */
+		int getRemovedElements() {
+			return removals.size();
+		}
+
+		/**
+		 * @return The number of changed attributes.
+		 */
+		int getChangedAttributes() {
+			return attributeChanges.size();
+		}
+	}
+
+	/**
+	 * A removed element.
+	 */
+	private static class Removal {
+		private final String path;
+		private final String xml;
+
+		Removal(String path, String xml) {
+			this.path = path;
+			this.xml = xml;
+		}
+	}
+
+	/**
+	 * The old value of a changed attribute.
+	 */
+	private static class AttributeChange {
+		private final String path;
+		private final String name;
+		private final String oldValue;
+
+		AttributeChange(String path, String name, String oldValue) {
+			this.path = path;
+			this.name = name;
+			this.oldValue = oldValue;
+		}
+	}
+}
@@ -0,0 +1,516 @@
+package io.goobi.dlc;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Checks that the meta.xml files below a directory are still consistent after
+ * a fix. Every file is read once with StAX on a pool of threads while the
+ * directory is still searched. The IDs of the files and of the logical and
+ * physical divs are kept in hash sets, so the references are resolved once the
+ * file was read, no matter where they occur. Reported are
+ * <ul>
+ * <li>mets:fptr FILEIDs without mets:file,</li>
+ * <li>mets:smLink xlink:from values without logical div and xlink:to values
+ * without physical div,</li>
+ * <li>hrefs that occur more than once in the mets:fileSec,</li>
+ * <li>ORDER attributes that are not numbered 1, 2, 3, ... in document order,
+ * like the fix numbers them.</li>
+ * </ul>
+ * Nothing is changed.
+ *
+ * <pre>
+ * VerifyMetsFiles [--threads N] [--report FILE|-] &lt;directory&gt;
+ * </pre>
+ */
+public class VerifyMetsFiles {
+	private static final Logger logger = LogManager.getLogger(VerifyMetsFiles.class);
+	// Number of queued files per worker before the search verifies files itself
+	private static final int QUEUE_CAPACITY_PER_THREAD = 64;
+	// One factory per thread, the JDK factory does not promise thread safety
+	private static final ThreadLocal<XMLInputFactory> inputFactories = ThreadLocal
+			.withInitial(HrefPreScanner::createInputFactory);
+	// One index per thread, reused for every file
+	private static final ThreadLocal<DocumentIndex> indexes = ThreadLocal.withInitial(DocumentIndex::new);
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private final LongAdder verifiedFiles = new LongAdder();
+	private final Map<Kind, LongAdder> problemCounts = new EnumMap<>(Kind.class);
+	// Problems of the inconsistent files, keyed by discovery position
+	private final ConcurrentSkipListMap<Integer, FileProblems> filesWithProblems = new ConcurrentSkipListMap<>();
+
+	/**
+	 * The kinds of inconsistencies.
+	 */
+	enum Kind {
+		/** A mets:fptr refers to a mets:file that does not exist. */
+		DANGLING_FPTR,
+		/** A mets:smLink starts at a logical div that does not exist. */
+		DANGLING_SMLINK_FROM,
+		/** A mets:smLink points to a physical div that does not exist. */
+		DANGLING_SMLINK_TO,
+		/** An href occurs more than once in the mets:fileSec. */
+		DUPLICATE_HREF,
+		/** An ORDER attribute does not follow its predecessor. */
+		ORDER_GAP,
+		/** The file cannot be read or is not well-formed XML. */
+		UNREADABLE
+	}
+
+	/**
+	 * Creates a verifier using one thread per processor.
+	 */
+	VerifyMetsFiles() {
+		for (Kind kind : Kind.values()) {
+			problemCounts.put(kind, new LongAdder());
+		}
+	}
+
+	/**
+	 * The main entry point of the application.
+	 *
+	 * @param args Command line arguments - options and only one directory.
+	 */
+	public static void main(String[] args) {
+		VerifyMetsFiles verifier = new VerifyMetsFiles();
+		Path report = null;
+		File directory = null;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ("--threads".equals(arg) || "--report".equals(arg)) {
+				if (++i == args.length) {
+					logger.error("Missing value for " + arg);
+					return;
+				}
+				if ("--report".equals(arg)) {
+					report = Paths.get(args[i]);
+				} else {
+					try {
+						verifier.threads = Math.max(1, Integer.parseInt(args[i]));
+					} catch (NumberFormatException e) {
+						logger.error(arg + " expects a number: " + args[i]);
+						return;
+					}
+				}
+			} else if (directory == null && !arg.startsWith("--")) {
+				directory = new File(arg).getAbsoluteFile();
+			} else {
+				logger.error("Please specify only one directory.");
+				return;
+			}
+		}
+		if (directory == null || !directory.isDirectory()) {
+			logger.error("Please specify a valid directory.");
+			return;
+		}
+
+		long start = System.nanoTime();
+		try {
+			verifier.verifyAll(directory);
+			if (report != null) {
+				verifier.writeReport(report);
+			}
+		} catch (IOException e) {
+			logger.error("Error verifying directory: " + directory, e);
+			return;
+		}
+		long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+		logger.info("Number of files verified: " + verifier.verifiedFiles.sum() + " in " + seconds + " s");
+		logger.info("Number of files with problems: " + verifier.filesWithProblems.size());
+		for (Kind kind : Kind.values()) {
+			logger.info("   " + kind + ": " + verifier.getProblemCount(kind));
+		}
+		if (!verifier.filesWithProblems.isEmpty()) {
+			// log filter query for goobi processes
+			logger.info("\"id: " + String.join(" ", verifier.getProcessIDs()) + "\"");
+		}
+	}
+
+	/**
+	 * Verifies all meta.xml files below the directory. The files are verified on
+	 * the worker threads while the directory is still searched, if the workers
+	 * fall behind the searching thread verifies files itself.
+	 *
+	 * @param directory The directory to be searched.
+	 * @throws IOException If the directory cannot be read.
+	 */
+	void verifyAll(File directory) throws IOException {
+		MetaXmlDiscoverer discoverer = new MetaXmlDiscoverer(directory.toPath());
+		AtomicInteger position = new AtomicInteger();
+		AtomicInteger workers = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(threads * QUEUE_CAPACITY_PER_THREAD), runnable -> {
+					Thread thread = new Thread(runnable, "verifier-" + workers.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+		try {
+			discoverer.discover(file -> {
+				int index = position.getAndIncrement();
+				executor.execute(() -> record(index, file, verify(file)));
+			});
+		} finally {
+			executor.shutdown();
+			try {
+				while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+					logger.trace("Waiting for verifiers to finish");
+				}
+			} catch (InterruptedException e) {
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Counts a verified file and keeps its problems.
+	 *
+	 * @param position The position of the file in the discovery order.
+	 * @param xmlFile  The verified meta.xml.
+	 * @param problems The problems found, empty if the file is consistent.
+	 */
+	private void record(int position, File xmlFile, List<Problem> problems) {
+		verifiedFiles.increment();
+		if (problems.isEmpty()) {
+			return;
+		}
+		filesWithProblems.put(position, new FileProblems(xmlFile, problems));
+		for (Problem problem : problems) {
+			problemCounts.get(problem.kind).increment();
+			logger.warn(xmlFile + ":" + problem);
+		}
+	}
+
+	/**
+	 * Verifies a single meta.xml.
+	 *
+	 * @param xmlFile The meta.xml to verify.
+	 * @return The problems in document order, empty if the file is consistent.
+	 */
+	List<Problem> verify(File xmlFile) {
+		List<Problem> problems = new ArrayList<>();
+		DocumentIndex index = indexes.get();
+		index.clear();
+		try (FileContent content = FileContent.open(xmlFile)) {
+			XMLStreamReader reader = inputFactories.get().createXMLStreamReader(content.newInputStream());
+			try {
+				scan(reader, index, problems);
+			} finally {
+				reader.close();
+			}
+		} catch (IOException | XMLStreamException e) {
+			problems.add(new Problem(Kind.UNREADABLE, 0, e.getMessage()));
+			return problems;
+		}
+
+		// All IDs are known now, references may point forward
+		for (Reference reference : index.references) {
+			Set<String> targets = reference.kind == Kind.DANGLING_FPTR ? index.fileIDs
+					: reference.kind == Kind.DANGLING_SMLINK_FROM ? index.logicalIDs : index.physicalIDs;
+			if (!targets.contains(reference.id)) {
+				problems.add(new Problem(reference.kind, reference.line, reference.id));
+			}
+		}
+		Collections.sort(problems, (a, b) -> Integer.compare(a.line, b.line));
+		return problems;
+	}
+
+	/**
+	 * Reads a document, collects its IDs and references and reports duplicate
+	 * hrefs and ORDER gaps right away.
+	 *
+	 * @param reader   The reader positioned at the start of the document.
+	 * @param index    Receives the IDs and references.
+	 * @param problems Receives the duplicate hrefs and ORDER gaps.
+	 * @throws XMLStreamException If the document is not well-formed XML.
+	 */
+	private void scan(XMLStreamReader reader, DocumentIndex index, List<Problem> problems) throws XMLStreamException {
+		// Type of the structMap the reader is in, null outside of structMaps
+		String structMapType = null;
+		boolean inFileSec = false;
+		int lastOrder = 0;
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				String name = reader.getLocalName();
+				if ("structMap".equals(name)) {
+					structMapType = null;
+				} else if ("fileSec".equals(name)) {
+					inFileSec = false;
+				}
+				continue;
+			}
+			if (event != XMLStreamConstants.START_ELEMENT) {
+				continue;
+			}
+
+			String name = reader.getLocalName();
+			int line = reader.getLocation().getLineNumber();
+			switch (name) {
+			case "fileSec":
+				inFileSec = true;
+				break;
+			case "structMap":
+				structMapType = reader.getAttributeValue(null, "TYPE");
+				break;
+			case "file":
+				addID(reader, index.fileIDs);
+				break;
+			case "div":
+				if ("LOGICAL".equals(structMapType)) {
+					addID(reader, index.logicalIDs);
+				} else if ("PHYSICAL".equals(structMapType)) {
+					addID(reader, index.physicalIDs);
+				}
+				break;
+			case "fptr":
+				addReference(index, Kind.DANGLING_FPTR, reader.getAttributeValue(null, "FILEID"), line);
+				break;
+			case "smLink":
+				for (int i = 0; i < reader.getAttributeCount(); i++) {
+					String attribute = reader.getAttributeLocalName(i);
+					if ("from".equals(attribute)) {
+						addReference(index, Kind.DANGLING_SMLINK_FROM, reader.getAttributeValue(i), line);
+					} else if ("to".equals(attribute)) {
+						addReference(index, Kind.DANGLING_SMLINK_TO, reader.getAttributeValue(i), line);
+					}
+				}
+				break;
+			default:
+				break;
+			}
+
+			for (int i = 0; i < reader.getAttributeCount(); i++) {
+				String attribute = reader.getAttributeLocalName(i);
+				if (inFileSec && "href".equals(attribute)) {
+					// Reported once, at its first repetition
+					String href = reader.getAttributeValue(i);
+					if (index.hrefs.add(href) == 2) {
+						problems.add(new Problem(Kind.DUPLICATE_HREF, line, href));
+					}
+				} else if ("ORDER".equals(attribute)) {
+					lastOrder = checkOrder(reader.getAttributeValue(i), lastOrder, line, problems);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks that an ORDER value follows the previous one.
+	 *
+	 * @param value     The ORDER value.
+	 * @param lastOrder The previous ORDER value, 0 before the first one.
+	 * @param line      The line of the element.
+	 * @param problems  Receives the gap.
+	 * @return The ORDER value the next one has to follow.
+	 */
+	private static int checkOrder(String value, int lastOrder, int line, List<Problem> problems) {
+		int order;
+		try {
+			order = Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			problems.add(new Problem(Kind.ORDER_GAP, line, "ORDER " + value + " after " + lastOrder));
+			return lastOrder + 1;
+		}
+		if (order != lastOrder + 1) {
+			// Reported once, the following values are checked against this one
+			problems.add(new Problem(Kind.ORDER_GAP, line, "ORDER " + order + " after " + lastOrder));
+		}
+		return order;
+	}
+
+	/**
+	 * Adds the ID attribute of the current element to a set.
+	 *
+	 * @param reader The reader positioned at a start element.
+	 * @param ids    The set of IDs.
+	 */
+	private static void addID(XMLStreamReader reader, Set<String> ids) {
+		String id = reader.getAttributeValue(null, "ID");
+		if (id != null) {
+			ids.add(id);
+		}
+	}
+
+	/**
+	 * Remembers a reference, it is resolved after the whole document was read.
+	 *
+	 * @param index The index of the document.
+	 * @param kind  The problem if the reference cannot be resolved.
+	 * @param id    The referenced ID, a missing attribute is not a reference.
+	 * @param line  The line of the referencing element.
+	 */
+	private static void addReference(DocumentIndex index, Kind kind, String id, int line) {
+		if (id != null) {
+			index.references.add(new Reference(kind, id, line));
+		}
+	}
+
+	/**
+	 * Writes the problems as tab separated lines of path, kind, line and detail,
+	 * in the order the files were found.
+	 *
+	 * @param report The report file, "-" writes to standard output.
+	 * @throws IOException If the report cannot be written.
+	 */
+	void writeReport(Path report) throws IOException {
+		boolean standardOutput = "-".equals(report.toString());
+		Writer writer = standardOutput
+				? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+				: Files.newBufferedWriter(report, StandardCharsets.UTF_8);
+		try {
+			for (FileProblems file : filesWithProblems.values()) {
+				for (Problem problem : file.problems) {
+					writer.write(file.xmlFile.getPath() + "\t" + problem.kind + "\t" + problem.line + "\t"
+							+ problem.detail + "\n");
+				}
+			}
+		} finally {
+			if (standardOutput) {
+				writer.flush();
+			} else {
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * @return The number of files verified.
+	 */
+	long getVerifiedFiles() {
+		return verifiedFiles.sum();
+	}
+
+	/**
+	 * @param kind The kind of problem.
+	 * @return How often the problem was found in all files.
+	 */
+	long getProblemCount(Kind kind) {
+		return problemCounts.get(kind).sum();
+	}
+
+	/**
+	 * @return The parent directory names of the files with problems, in the order
+	 *         the files were found.
+	 */
+	List<String> getProcessIDs() {
+		List<String> processIDs = new ArrayList<>();
+		for (FileProblems file : filesWithProblems.values()) {
+			processIDs.add(file.xmlFile.getParentFile().getName());
+		}
+		return processIDs;
+	}
+
+	/**
+	 * One inconsistency of a file.
+	 */
+	static class Problem {
+		private final Kind kind;
+		private final int line;
+		private final String detail;
+
+		Problem(Kind kind, int line, String detail) {
+			this.kind = kind;
+			this.line = line;
+			this.detail = detail;
+		}
+
+		/**
+		 * @return The kind of inconsistency.
+		 */
+		Kind getKind() {
+			return kind;
+		}
+
+		/**
+		 * @return The line of the element, 0 if unknown.
+		 */
+		int getLine() {
+			return line;
+		}
+
+		@Override
+		public String toString() {
+			return line + ": " + kind + " " + detail;
+		}
+	}
+
+	/**
+	 * The problems of one file.
+	 */
+	private static class FileProblems {
+		private final File xmlFile;
+		private final List<Problem> problems;
+
+		FileProblems(File xmlFile, List<Problem> problems) {
+			this.xmlFile = xmlFile;
+			this.problems = problems;
+		}
+	}
+
+	/**
+	 * A reference that is resolved after the document was read.
+	 */
+	private static class Reference {
+		private final Kind kind;
+		private final String id;
+		private final int line;
+
+		Reference(Kind kind, String id, int line) {
+			this.kind = kind;
+			this.id = id;
+			this.line = line;
+		}
+	}
+
+	/**
+	 * The IDs, hrefs and references of one document, cleared and reused for the
+	 * next document of the thread.
+	 */
+	private static class DocumentIndex {
+		private final Set<String> fileIDs = new HashSet<>();
+		private final Set<String> logicalIDs = new HashSet<>();
+		private final Set<String> physicalIDs = new HashSet<>();
+		private final HrefTable hrefs = new HrefTable(1024);
+		private final List<Reference> references = new ArrayList<>();
+
+		/**
+		 * Removes everything of the previous document.
+		 */
+		void clear() {
+			fileIDs.clear();
+			logicalIDs.clear();
+			physicalIDs.clear();
+			hrefs.clear();
+			references.clear();
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package io.goobi.dlc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CleanupBackups_Test {
+
+    // Creates a process directory with three backups of different age
+    private Path createBackups(Path directory) throws IOException {
+        Path process = directory.resolve("1402");
+        Files.createDirectories(process);
+        Files.write(process.resolve("meta.xml"), "<mets/>".getBytes());
+        Files.write(process.resolve("meta.xml.2020-01-01-120000000.before-mets-fix"), "1".getBytes());
+        Files.write(process.resolve("meta.xml.2021-01-01-120000000.before-mets-fix.gz"), "22".getBytes());
+        Files.write(process.resolve("meta.xml.2099-01-01-120000000.before-mets-fix"), "333".getBytes());
+        return process;
+    }
+
+    @Test
+    void testDeleteAll(@TempDir Path tempDir) throws IOException {
+        Path process = createBackups(tempDir);
+
+        assertEquals(3, new CleanupBackups().processFiles(tempDir.toFile()));
+        // Only the meta.xml is left
+        assertEquals(1, process.toFile().list().length);
+    }
+
+    @Test
+    void testDryRun(@TempDir Path tempDir) throws IOException {
+        Path process = createBackups(tempDir);
+
+        CleanupBackups.main(new String[] { "--dry-run", tempDir.toString() });
+        assertEquals(4, process.toFile().list().length);
+
+        CleanupBackups cleanupBackups = new CleanupBackups();
+        cleanupBackups.setDryRun(true);
+        assertEquals(3, cleanupBackups.processFiles(tempDir.toFile()));
+        // The sizes of the three backups: 1 + 2 + 3 bytes
+        assertEquals(6, cleanupBackups.getBytesReclaimed());
+        assertEquals(4, process.toFile().list().length);
+    }
+
+    @Test
+    void testRetention(@TempDir Path tempDir) throws IOException {
+        Path process = createBackups(tempDir);
+
+        // An unknown option is rejected and deletes nothing
+        CleanupBackups.main(new String[] { "--older-than", "365", tempDir.toString() });
+        assertEquals(4, process.toFile().list().length);
+
+        // Keep the newest backup, delete only backups older than a year
+        CleanupBackups.main(new String[] { "--keep", "1", "--older-than-days", "365", tempDir.toString() });
+        assertFalse(Files.exists(process.resolve("meta.xml.2020-01-01-120000000.before-mets-fix")));
+        assertFalse(Files.exists(process.resolve("meta.xml.2021-01-01-120000000.before-mets-fix.gz")));
+        assertTrue(Files.exists(process.resolve("meta.xml.2099-01-01-120000000.before-mets-fix")));
+    }
+}
@@ -0,0 +1,40 @@
+package io.goobi.dlc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.junit.jupiter.api.Test;
+
+class DuplicateFixPlan_Test {
+
+    @Test
+    void testDuplicateFixPlan() throws JDOMException, IOException {
+        File xmlFile = new File("src/test/resources/183112/meta.xml.unfixed");
+        Element rootElement = new SAXBuilder().build(xmlFile).getRootElement();
+        MetsIndex index = new MetsIndex(rootElement);
+
+        DuplicateFixPlan plan = new DuplicateFixPlan(index);
+        plan.addDuplicate("00000015.tif");
+        plan.addDuplicate("00000016.tif");
+        assertEquals(Arrays.asList("FILE_0142", "PHYS_0142", "FILE_0143", "PHYS_0143"), plan.getRemovedIDs());
+
+        // Nothing is changed before the plan is applied
+        assertNotNull(index.getElements("FILE_0142").get(0).getParent());
+
+        // 143 pages minus the two duplicates
+        assertEquals(141, plan.apply(rootElement));
+        assertNull(index.getElements("FILE_0142").get(0).getParent());
+        assertNull(index.getElements("PHYS_0143").get(0).getParent());
+        for (Element smLink : index.getSmLinks("PHYS_0142")) {
+            assertNull(smLink.getParent());
+        }
+    }
+}
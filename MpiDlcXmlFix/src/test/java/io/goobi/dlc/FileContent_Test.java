@@ -0,0 +1,61 @@
+package io.goobi.dlc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FileContent_Test {
+
+    @Test
+    void testFileContent(@TempDir Path tempDir) throws Exception {
+        File xmlFile = new File("src/test/resources/186460/meta.xml.unfixed");
+        byte[] expected = Files.readAllBytes(xmlFile.toPath());
+        // Larger than a single read, so the buffer has to grow
+        File largeFile = tempDir.resolve("large.xml").toFile();
+        byte[] large = new byte[FileContent.READ_SIZE * 2 + 17];
+        Arrays.fill(large, (byte) 'x');
+        Files.write(largeFile.toPath(), large);
+
+        try (FileContent content = FileContent.open(xmlFile)) {
+            // The pre-scan stops after the fileSec, the parser reads on from there
+            assertTrue(new HrefPreScanner().hasDuplicateHrefs(content.newInputStream()));
+            assertTrue(content.getBytesRead() <= expected.length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream in = content.newInputStream()) {
+                byte[] buffer = new byte[1000];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            assertArrayEquals(expected, out.toByteArray());
+            assertEquals(ScanManifest.hash(xmlFile), content.hash());
+        }
+        try (FileContent content = FileContent.open(largeFile)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            content.writeTo(out);
+            assertArrayEquals(large, out.toByteArray());
+            assertEquals(large.length, content.getBytesRead());
+        }
+
+        // A copy from memory keeps the content and modification time of the original
+        FixForXmlFiles fixForXmlFiles = new FixForXmlFiles();
+        Path source = Files.copy(xmlFile.toPath(), tempDir.resolve("meta.xml"), StandardCopyOption.COPY_ATTRIBUTES);
+        try (FileContent content = FileContent.open(source.toFile())) {
+            Path backup = fixForXmlFiles.generateBackupFile(source.toFile(), content);
+            assertArrayEquals(expected, Files.readAllBytes(backup));
+            assertEquals(Files.getLastModifiedTime(source), Files.getLastModifiedTime(backup));
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package io.goobi.dlc;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -7,15 +8,24 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
 import java.text.Format;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -227,10 +237,101 @@ class FixForXmlFiles_Test {
         List<String> result = fixForXmlFiles.findIDValueOfDuplicateTifValues(fileElement, "00000265.tif");
         assertEquals("FILE_0271", result.get(0)); 
     }
-    
+
+    @Test
+    void testFixXmlFile(@TempDir Path tempDir) throws IOException {
+        Path xmlFile = tempDir.resolve("183112").resolve("meta.xml");
+        Files.createDirectories(xmlFile.getParent());
+        Files.copy(new File("src/test/resources/183112/meta.xml.unfixed").toPath(), xmlFile);
+
+        FixForXmlFiles fixForXmlFiles = new FixForXmlFiles();
+        // The first run fixes the duplicates, the second one finds none
+        assertTrue(fixForXmlFiles.fixXmlFile(xmlFile.toFile()));
+        assertFalse(fixForXmlFiles.fixXmlFile(xmlFile.toFile()));
+    }
+
     @Test
-    void testFindAndRewritePHYSValuesOfDuplicateLines(){
-    	
+    void testDryRunReport(@TempDir Path tempDir) throws IOException {
+        Path xmlFile = tempDir.resolve("183112").resolve("meta.xml");
+        Files.createDirectories(xmlFile.getParent());
+        Files.copy(new File("src/test/resources/183112/meta.xml.unfixed").toPath(), xmlFile);
+        byte[] original = Files.readAllBytes(xmlFile);
+
+        FixForXmlFiles fixForXmlFiles = new FixForXmlFiles(FixOptions.parse(new String[] { "--dry-run", tempDir.toString() }));
+        StringWriter reportLines = new StringWriter();
+        fixForXmlFiles.setReport(new FixReport(reportLines));
+        assertEquals(FixStatus.FIXED, fixForXmlFiles.fix(xmlFile.toFile()));
+
+        // Neither a backup nor a changed file, but one report line
+        assertArrayEquals(original, Files.readAllBytes(xmlFile));
+        assertEquals(1, xmlFile.getParent().toFile().list().length);
+        String line = reportLines.toString();
+        assertTrue(line.startsWith("{\"process\":\"183112\",\"path\":"));
+        assertTrue(line.endsWith("]}\n"));
+        assertTrue(line.contains("\"removedIds\":[\"FILE_"));
+    }
+
+    @Test
+    void testSaveDocument(@TempDir Path tempDir) throws Exception {
+        Path xmlFile = tempDir.resolve("meta.xml");
+        Files.copy(new File("src/test/resources/183112/meta.xml").toPath(), xmlFile);
+        Document document = new SAXBuilder().build(xmlFile.toFile());
+        Files.setPosixFilePermissions(xmlFile, PosixFilePermissions.fromString("rw-r--r--"));
+        // A run as root keeps the owner of the Goobi files
+        UserPrincipal owner = Files.getOwner(xmlFile);
+        try {
+            UserPrincipal nobody = xmlFile.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName("nobody");
+            Files.setOwner(xmlFile, nobody);
+            owner = nobody;
+        } catch (IOException e) {
+            // Not root, the running user owns the file
+        }
+
+        FixForXmlFiles fixForXmlFiles = new FixForXmlFiles();
+        assertTrue(fixForXmlFiles.saveDocument(document, xmlFile.toFile()));
+        assertEquals(owner, Files.getOwner(xmlFile));
+        assertEquals("rw-r--r--", PosixFilePermissions.toString(Files.getPosixFilePermissions(xmlFile)));
+
+        // Umlauts are written as UTF-8 and no temporary file is left behind
+        String content = new String(Files.readAllBytes(xmlFile), StandardCharsets.UTF_8);
+        assertTrue(content.contains("Wechselrecht"));
+        assertTrue(content.contains("J\u00e4nner"));
+        assertEquals(1, tempDir.toFile().list().length);
+    }
+
+    @Test
+    void testFindAndRewritePHYSValuesOfDuplicateLines() throws JDOMException, IOException {
+        String mets = "<mets:mets xmlns:mets=\"http://www.loc.gov/METS/\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">"
+                + "<mets:fileSec><mets:fileGrp>"
+                + "<mets:file ID=\"FILE_1\"><mets:FLocat xlink:href=\"1.tif\"/></mets:file>"
+                + "<mets:file ID=\"FILE_2\"><mets:FLocat xlink:href=\"1.tif\"/></mets:file>"
+                + "</mets:fileGrp></mets:fileSec>"
+                + "<mets:structMap TYPE=\"PHYSICAL\"><mets:div ID=\"PHYS_0\">"
+                + "<mets:div ID=\"PHYS_1\" ORDER=\"1\"><mets:fptr FILEID=\"FILE_1\"/></mets:div>"
+                + "<mets:div ID=\"PHYS_2\" ORDER=\"2\"><mets:fptr FILEID=\"FILE_2\"/></mets:div>"
+                + "</mets:div></mets:structMap>"
+                + "<mets:structLink>"
+                + "<mets:smLink xlink:from=\"LOG_1\" xlink:to=\"PHYS_2\"/>"
+                + "<mets:smLink xlink:from=\"PHYS_2\" xlink:to=\"LOG_2\"/>"
+                + "</mets:structLink></mets:mets>";
+        Element rootElement = new SAXBuilder().build(new StringReader(mets)).getRootElement();
+        Element structLink = rootElement.getChildren().get(2);
+        Element rewritten = structLink.getChildren().get(1);
+        DuplicateFixPlan plan = new DuplicateFixPlan(new MetsIndex(rootElement));
+        plan.addDuplicate("1.tif");
+        UndoJournal.Changes changes = new UndoJournal.Changes("meta.xml", "");
+        assertEquals(1, plan.apply(rootElement, changes));
+
+        // The smLink to the removed div is dropped, the other one points to the kept div
+        assertEquals(1, structLink.getChildren().size());
+        assertEquals("PHYS_1", rewritten.getAttributeValue("from", rootElement.getNamespace("xlink")));
+        assertEquals(3, changes.getRemovedElements());
+        assertEquals(1, changes.getChangedAttributes());
+
+        changes.undo(rootElement);
+        assertEquals(2, structLink.getChildren().size());
+        assertEquals("PHYS_2", rewritten.getAttributeValue("from", rootElement.getNamespace("xlink")));
+        assertEquals("PHYS_2", rootElement.getChildren().get(1).getChildren().get(0).getChildren().get(1).getAttributeValue("ID"));
     }
 
 
@@ -260,6 +361,33 @@ class FixForXmlFiles_Test {
             logger.error("Generated Backupfile does not match the original Lines", e);
         }
     }
+    @Test
+    void testGenerateBackupFileStrategies(@TempDir Path tempDir) throws IOException {
+        Path xmlFile = tempDir.resolve("meta.xml");
+        Files.copy(new File("src/test/resources/183112/meta.xml").toPath(), xmlFile);
+        byte[] original = Files.readAllBytes(xmlFile);
+
+        // The hard link keeps the original content after the file is replaced
+        FixOptions hardlinkOptions = FixOptions.parse(new String[] { "--backup", "hardlink", tempDir.toString() });
+        Path hardlink = new FixForXmlFiles(hardlinkOptions).generateBackupFile(xmlFile.toFile());
+        Files.write(tempDir.resolve("new.xml"), "<mets/>".getBytes());
+        Files.move(tempDir.resolve("new.xml"), xmlFile, StandardCopyOption.REPLACE_EXISTING);
+        assertArrayEquals(original, Files.readAllBytes(hardlink));
+
+        FixOptions gzipOptions = FixOptions.parse(new String[] { "--backup", "gzip", tempDir.toString() });
+        Path gzip = new FixForXmlFiles(gzipOptions).generateBackupFile(hardlink.toFile());
+        assertTrue(gzip.getFileName().toString().endsWith(".gz"));
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(gzip))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            assertArrayEquals(original, out.toByteArray());
+        }
+    }
+
     @AfterAll
     private static void deletingBackups() {
     	String directoryPath = "src/test/resources";
@@ -0,0 +1,66 @@
+package io.goobi.dlc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FixRunner_Test {
+
+    @Test
+    void testFixRunner(@TempDir Path tempDir) throws IOException {
+        List<File> sequentialFiles = TestFixtures.copyBackupFixtures(tempDir.resolve("sequential"));
+        List<File> parallelFiles = TestFixtures.copyBackupFixtures(tempDir.resolve("parallel"));
+
+        FixForXmlFiles sequentialFixer = new FixForXmlFiles();
+        List<String> sequentialFolders = new FixRunner(sequentialFixer, 1).run(sequentialFiles);
+        FixForXmlFiles parallelFixer = new FixForXmlFiles();
+        List<String> parallelFolders = new FixRunner(parallelFixer, 4).run(parallelFiles);
+
+        // Same folders in the same order as the sequential run
+        assertEquals(TestFixtures.FILES_WITH_DUPLICATES, sequentialFolders.size());
+        assertEquals(sequentialFolders, parallelFolders);
+        for (int i = 0; i < sequentialFiles.size(); i++) {
+            assertEquals(Files.readAllLines(sequentialFiles.get(i).toPath()), Files.readAllLines(parallelFiles.get(i).toPath()));
+        }
+
+        // An Error in one file fails only that file, the workers keep going
+        List<File> files = TestFixtures.copyBackupFixtures(tempDir.resolve("errors"));
+        File broken = files.get(0);
+        FixForXmlFiles failingFixer = new FixForXmlFiles() {
+            @Override
+            FixStatus fix(File file, ScanManifest.Fingerprint fingerprint) {
+                if (file.equals(broken)) {
+                    throw new StackOverflowError();
+                }
+                return super.fix(file, fingerprint);
+            }
+        };
+        List<FixStatus> statuses = new ArrayList<>();
+        FixRunner runner = new FixRunner(failingFixer, 2);
+        runner.addListener((file, status, fingerprint) -> {
+            synchronized (statuses) {
+                statuses.add(file.equals(broken) ? status : null);
+            }
+        });
+        assertEquals(TestFixtures.FILES_WITH_DUPLICATES - 1, runner.run(files).size());
+        assertEquals(files.size(), statuses.size());
+        assertTrue(statuses.contains(FixStatus.FAILED));
+
+        // An interrupted run stops handing out files
+        Thread.currentThread().interrupt();
+        try {
+            assertTrue(new FixRunner(new FixForXmlFiles(), 2).run(files).isEmpty());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package io.goobi.dlc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HeapBudget_Test {
+
+    @Test
+    void testHeapBudget(@TempDir Path tempDir) throws Exception {
+        HeapBudget heapBudget = new HeapBudget(1024 * 1024);
+        int reservation = heapBudget.acquire(64 * 1024);
+        assertEquals(512 * 1024, heapBudget.getAvailableBytes());
+
+        // A file larger than the whole budget waits until it can run alone
+        Thread largeFile = new Thread(() -> {
+            try {
+                heapBudget.release(heapBudget.acquire(10 * 1024 * 1024));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        largeFile.start();
+        largeFile.join(200);
+        assertTrue(largeFile.isAlive());
+        heapBudget.release(reservation);
+        largeFile.join(5000);
+        assertFalse(largeFile.isAlive());
+        assertEquals(1024 * 1024, heapBudget.getAvailableBytes());
+
+        // A budget smaller than most fixtures still fixes all of them
+        List<File> files = TestFixtures.copyBackupFixtures(tempDir);
+        FixForXmlFiles fixer = new FixForXmlFiles(FixOptions.parse(new String[] { "--heap-budget-mb", "1", tempDir.toString() }));
+        assertEquals(TestFixtures.FILES_WITH_DUPLICATES, new FixRunner(fixer, 4).run(files).size());
+
+        // The streaming engine reserves the content it holds in memory
+        assertEquals(128 * 1024, HeapBudget.estimate(64 * 1024, FixEngine.STREAM));
+        List<File> streamedFiles = TestFixtures.copyBackupFixtures(tempDir.resolve("streamed"));
+        FixForXmlFiles streaming = new FixForXmlFiles(FixOptions.parse(new String[] { "--heap-budget-mb", "1",
+                "--engine", "stream", tempDir.toString() }));
+        assertEquals(TestFixtures.FILES_WITH_DUPLICATES, new FixRunner(streaming, 4).run(streamedFiles).size());
+    }
+}
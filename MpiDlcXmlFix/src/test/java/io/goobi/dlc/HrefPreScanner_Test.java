@@ -0,0 +1,20 @@
+package io.goobi.dlc;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+
+import org.junit.jupiter.api.Test;
+
+class HrefPreScanner_Test {
+
+    @Test
+    void testHrefPreScanner() throws Exception {
+        HrefPreScanner preScanner = new HrefPreScanner();
+        assertTrue(preScanner.hasDuplicateHrefs(new File("src/test/resources/186460/meta.xml.unfixed")));
+        assertFalse(preScanner.hasDuplicateHrefs(new File("src/test/resources/186460/meta.xml")));
+        // The empty mets:mptr href after the fileSec is never read
+        assertFalse(preScanner.hasDuplicateHrefs(new File("src/test/resources/1402/meta.xml")));
+    }
+}
@@ -0,0 +1,27 @@
+package io.goobi.dlc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class HrefTable_Test {
+
+    @Test
+    void testHrefTable() {
+        HrefTable table = new HrefTable(4);
+        // Grows far beyond the expected size
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(1, table.add(String.format("%08d.tif", i)));
+        }
+        assertEquals(2, table.add("00000037.tif"));
+        assertEquals(3, table.add(new String("00000037.tif")));
+        assertEquals(10000, table.size());
+        assertEquals(1, table.count("00009999.tif"));
+        assertEquals(0, table.count("00010000.tif"));
+
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(0, table.count("00000037.tif"));
+        assertEquals(1, table.add("00000037.tif"));
+    }
+}
@@ -0,0 +1,52 @@
+package io.goobi.dlc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MergeShardSummaries_Test {
+
+    @Test
+    void testShardedRun(@TempDir Path tempDir) throws IOException {
+        List<File> freshFiles = TestFixtures.copyBackupFixtures(tempDir.resolve("fresh"));
+        TestFixtures.copyBackupFixtures(tempDir.resolve("sharded"));
+        FixForXmlFiles fresh = new FixForXmlFiles();
+        List<String> freshFolders = new FixRunner(fresh, 1).run(freshFiles);
+
+        // Every process belongs to exactly one shard, shards run one after the other
+        // share the manifest
+        MergeShardSummaries merger = new MergeShardSummaries();
+        Path manifestFile = tempDir.resolve("manifest.tsv");
+        for (int i = 1; i <= 3; i++) {
+            Path summary = tempDir.resolve("summary-" + i + ".properties");
+            FixForXmlFiles.main(new String[] { "--shard", i + "/3", "--summary", summary.toString(), "--report",
+                    tempDir.resolve("report-" + i + ".jsonl").toString(), "--manifest", manifestFile.toString(),
+                    tempDir.resolve("sharded").toString() });
+            merger.add(ShardSummary.load(summary));
+        }
+        Path mergedReport = tempDir.resolve("report.jsonl");
+        merger.writeReport(mergedReport);
+
+        assertTrue(merger.getMissingShards().isEmpty());
+        ShardSummary freshSummary = fresh.createSummary(freshFolders);
+        assertEquals(freshSummary.getFilesWithDuplicates(), merger.getFilesWithDuplicates());
+        assertEquals(freshSummary.getTotalDuplicates(), merger.getTotalDuplicates());
+        List<String> mergedFolders = Arrays.asList(merger.getFilterQuery().split(" "));
+        assertEquals(freshFolders.size(), mergedFolders.size());
+        assertTrue(mergedFolders.containsAll(freshFolders));
+        assertEquals(freshFolders.size(), Files.readAllLines(mergedReport).size());
+        assertEquals(freshFiles.size(), Files.readAllLines(manifestFile).size());
+        assertEquals(2, Shard.parse("2/3").getIndex());
+        assertThrows(IllegalArgumentException.class, () -> Shard.parse("4/3"));
+    }
+}
@@ -0,0 +1,62 @@
+package io.goobi.dlc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MetaXmlWatcher_Test {
+
+    @Test
+    void testMetaXmlWatcher(@TempDir Path tempDir) throws Exception {
+        FixForXmlFiles fixer = new FixForXmlFiles();
+        BlockingQueue<List<File>> batches = new LinkedBlockingQueue<>();
+        MetaXmlWatcher watcher = new MetaXmlWatcher(tempDir, 200);
+        Thread watching = new Thread(() -> watcher.run(files -> {
+            for (File file : files) {
+                if (fixer.fix(file) == FixStatus.FIXED) {
+                    watcher.ignoreOwnWrite(file);
+                }
+            }
+            batches.add(files);
+        }));
+        watching.start();
+        try {
+            // A new process directory written in several steps
+            Path xmlFile = tempDir.resolve("183112").resolve("meta.xml");
+            Files.createDirectories(xmlFile.getParent());
+            byte[] content = Files.readAllBytes(new File("src/test/resources/183112/meta.xml.unfixed").toPath());
+            Files.write(xmlFile, Arrays.copyOf(content, content.length / 2));
+            Files.write(xmlFile, content);
+
+            List<File> batch = batches.poll(30, TimeUnit.SECONDS);
+            assertNotNull(batch);
+            assertEquals(Arrays.asList(xmlFile.toFile()), batch);
+            assertEquals(2, xmlFile.getParent().toFile().list().length);
+
+            // Saving the fixed file does not start another round
+            assertNull(batches.poll(1, TimeUnit.SECONDS));
+        } finally {
+            watcher.close();
+            watching.join(10000);
+        }
+        assertFalse(watching.isAlive());
+
+        // Processes completed by an earlier run would never be fixed again
+        assertThrows(IllegalArgumentException.class, () -> FixOptions.parse(new String[] { "--watch", "--journal",
+                tempDir.resolve("journal.tsv").toString(), "--resume", tempDir.toString() }));
+    }
+}
@@ -0,0 +1,47 @@
+package io.goobi.dlc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MetsCorpusGenerator_Test {
+
+    @Test
+    void testMetsCorpusGenerator(@TempDir Path tempDir) throws Exception {
+        MetsCorpusGenerator generator = new MetsCorpusGenerator();
+        generator.configure(20, 60, 0.05, 3, 42);
+        generator.generate(tempDir);
+        assertEquals(20, generator.getFilesWritten());
+        assertTrue(generator.getFilesWithDuplicates() > 0);
+
+        // The fixer finds exactly the generated duplicates and leaves none behind
+        FixForXmlFiles fixer = new FixForXmlFiles();
+        List<File> files = fixer.processFiles(tempDir.toFile());
+        assertEquals(20, files.size());
+        assertEquals(generator.getFilesWithDuplicates(), new FixRunner(fixer, 2).run(files).size());
+        HrefPreScanner preScanner = new HrefPreScanner();
+        for (File file : files) {
+            assertFalse(preScanner.hasDuplicateHrefs(file));
+        }
+
+        // An interrupted generation reports it instead of returning normally
+        MetsCorpusGenerator interrupted = new MetsCorpusGenerator();
+        interrupted.configure(1000, 60, 0.05, 3, 42);
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(InterruptedIOException.class, () -> interrupted.generate(tempDir.resolve("interrupted")));
+        } finally {
+            Thread.interrupted();
+        }
+        assertTrue(interrupted.getFilesWritten() < 1000);
+    }
+}
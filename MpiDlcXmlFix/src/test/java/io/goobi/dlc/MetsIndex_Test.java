@@ -0,0 +1,31 @@
+package io.goobi.dlc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.junit.jupiter.api.Test;
+
+class MetsIndex_Test {
+
+    @Test
+    void testMetsIndex() throws JDOMException, IOException {
+        // 183112 contains the hrefs 00000015.tif and 00000016.tif twice
+        File xmlFile = new File("src/test/resources/183112/meta.xml.unfixed");
+        Element rootElement = new SAXBuilder().build(xmlFile).getRootElement();
+
+        MetsIndex index = new MetsIndex(rootElement);
+
+        assertEquals(Arrays.asList("FILE_0015", "FILE_0142"), index.getFileIDs("00000015.tif"));
+        assertEquals(Arrays.asList("PHYS_0142"), index.getPhysIDs("FILE_0142"));
+        assertEquals(3, index.getSmLinks("PHYS_0142").size());
+        assertEquals(1, index.getElements("FILE_0142").size());
+        assertTrue(index.getFileIDs("unknown.tif").isEmpty());
+    }
+}
@@ -0,0 +1,42 @@
+package io.goobi.dlc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ProcessFixer_Test {
+
+    @Test
+    void testProcessFixer(@TempDir Path tempDir) throws IOException {
+        Path metadata = tempDir.resolve("metadata");
+        List<File> files = TestFixtures.copyBackupFixtures(metadata);
+        String untouched = files.get(2).getParentFile().getName();
+        String byId = files.get(0).getParentFile().getName();
+        String byDirectory = metadata.resolve(files.get(1).getParentFile().getName()).toString();
+
+        ProcessFixer.Result result = new ProcessFixer(metadata, 2)
+                .fixProcesses(Arrays.asList(byId, byDirectory, byId, "999999"));
+
+        // Listed processes only, repetitions are fixed once
+        assertEquals(Arrays.asList(byId, files.get(1).getParentFile().getName()), result.getFixedProcessIDs());
+        assertTrue(result.getTotalDuplicates() >= 2);
+        assertEquals(Arrays.asList(metadata.resolve("999999").resolve("meta.xml")), result.getMissingFiles());
+        assertTrue(result.getFailedFiles().isEmpty());
+        assertEquals(1, metadata.resolve(untouched).toFile().list().length);
+
+        // The same list on the command line
+        Path ids = tempDir.resolve("ids.txt");
+        Files.write(ids, Arrays.asList("# after import", untouched, ""));
+        FixForXmlFiles.main(new String[] { "--ids", ids.toString(), metadata.toString() });
+        assertEquals(2, metadata.resolve(untouched).toFile().list().length);
+    }
+}
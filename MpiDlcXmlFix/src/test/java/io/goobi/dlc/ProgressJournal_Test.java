@@ -0,0 +1,52 @@
+package io.goobi.dlc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ProgressJournal_Test {
+
+    @Test
+    void testProgressJournal(@TempDir Path tempDir) throws IOException {
+        List<File> freshFiles = TestFixtures.copyBackupFixtures(tempDir.resolve("fresh"));
+        List<File> resumedFiles = TestFixtures.copyBackupFixtures(tempDir.resolve("resumed"));
+        Path journalFile = tempDir.resolve("journal.tsv");
+        List<String> freshFolders = new FixRunner(new FixForXmlFiles(), 1).run(freshFiles);
+
+        // A run that stops after the first files
+        FixForXmlFiles interrupted = new FixForXmlFiles();
+        try (ProgressJournal journal = ProgressJournal.open(journalFile, false)) {
+            interrupted.setJournal(journal);
+            new FixRunner(interrupted, 1).run(resumedFiles.subList(0, 5));
+        }
+
+        FixForXmlFiles resumed = new FixForXmlFiles();
+        List<String> resumedFolders;
+        try (ProgressJournal journal = ProgressJournal.open(journalFile, true)) {
+            resumed.setJournal(journal);
+            resumedFolders = new FixRunner(resumed, 4).run(resumedFiles);
+            assertEquals(5, journal.getResumedFiles());
+        }
+
+        // Same result as an uninterrupted run, finished files are not backed up twice
+        assertEquals(TestFixtures.FILES_WITH_DUPLICATES, freshFolders.size());
+        assertEquals(freshFolders, resumedFolders);
+        for (int i = 0; i < resumedFiles.size(); i++) {
+            assertEquals(Files.readAllLines(freshFiles.get(i).toPath()), Files.readAllLines(resumedFiles.get(i).toPath()));
+            assertEquals(2, resumedFiles.get(i).getParentFile().list().length);
+        }
+        assertEquals(resumedFiles.size(), Files.readAllLines(journalFile).size());
+
+        // A dry run would mark files as done that were never fixed
+        assertThrows(IllegalArgumentException.class, () -> FixOptions
+                .parse(new String[] { "--dry-run", "--journal", journalFile.toString(), tempDir.toString() }));
+    }
+}
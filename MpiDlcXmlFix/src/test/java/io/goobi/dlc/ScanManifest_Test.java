@@ -0,0 +1,54 @@
+package io.goobi.dlc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ScanManifest_Test {
+
+    @Test
+    void testScanManifest(@TempDir Path tempDir) throws IOException {
+        Path xmlFile = tempDir.resolve("877").resolve("meta.xml");
+        Files.createDirectories(xmlFile.getParent());
+        Files.copy(new File("src/test/resources/877/meta.xml").toPath(), xmlFile);
+        Path manifestFile = tempDir.resolve("manifest.tsv");
+
+        ScanManifest manifest = ScanManifest.load(manifestFile);
+        assertFalse(manifest.isUnchanged(xmlFile.toFile(), Files.readAttributes(xmlFile, BasicFileAttributes.class)));
+        // The fingerprint of the checked bytes is recorded, the file is not read again
+        ScanManifest.Fingerprint fingerprint = new ScanManifest.Fingerprint();
+        assertEquals(FixStatus.CLEAN, new FixForXmlFiles().fix(xmlFile.toFile(), fingerprint));
+        manifest.record(xmlFile.toFile(), FixStatus.CLEAN, fingerprint);
+
+        // A fixed file is recorded with the hash of the written bytes
+        File fixedFile = TestFixtures.copyBackupFixtures(tempDir.resolve("fixed")).get(0);
+        ScanManifest.Fingerprint written = new ScanManifest.Fingerprint();
+        assertEquals(FixStatus.FIXED, new FixForXmlFiles().fix(fixedFile, written));
+        manifest.record(fixedFile, FixStatus.FIXED, written);
+        Files.setLastModifiedTime(fixedFile.toPath(), FileTime.fromMillis(0));
+        assertTrue(manifest.isUnchanged(fixedFile, Files.readAttributes(fixedFile.toPath(), BasicFileAttributes.class)));
+
+        // Without a fingerprint the file is tried again
+        File failedFile = TestFixtures.copyBackupFixtures(tempDir.resolve("failed")).get(0);
+        manifest.record(failedFile, FixStatus.CLEAN, null);
+        assertFalse(manifest.isUnchanged(failedFile, Files.readAttributes(failedFile.toPath(), BasicFileAttributes.class)));
+        manifest.save(manifestFile, null);
+
+        // Unchanged after reloading, changed once the content is modified
+        manifest = ScanManifest.load(manifestFile);
+        assertTrue(manifest.isUnchanged(xmlFile.toFile(), Files.readAttributes(xmlFile, BasicFileAttributes.class)));
+        Files.write(xmlFile, "\n".getBytes(), StandardOpenOption.APPEND);
+        assertFalse(manifest.isUnchanged(xmlFile.toFile(), Files.readAttributes(xmlFile, BasicFileAttributes.class)));
+    }
+}
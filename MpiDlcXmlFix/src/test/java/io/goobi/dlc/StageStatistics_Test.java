@@ -0,0 +1,51 @@
+package io.goobi.dlc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StageStatistics_Test {
+
+    @Test
+    void testStageStatistics(@TempDir Path tempDir) throws IOException {
+        Path xmlFile = tempDir.resolve("183112").resolve("meta.xml");
+        Files.createDirectories(xmlFile.getParent());
+        Files.copy(new File("src/test/resources/183112/meta.xml.unfixed").toPath(), xmlFile);
+
+        FixForXmlFiles fixForXmlFiles = new FixForXmlFiles();
+        Path recordingFile = tempDir.resolve("fix.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("io.goobi.dlc.FixFile");
+            recording.start();
+            assertEquals(FixStatus.FIXED, fixForXmlFiles.fix(xmlFile.toFile()));
+            assertEquals(FixStatus.CLEAN, fixForXmlFiles.fix(xmlFile.toFile()));
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        // Both files are pre-scanned, only the first one is parsed and saved
+        StageStatistics statistics = fixForXmlFiles.getStatistics();
+        assertEquals(2, statistics.getCount(StageStatistics.Stage.PRE_SCAN));
+        assertEquals(1, statistics.getCount(StageStatistics.Stage.PARSE));
+        assertEquals(1, statistics.getCount(StageStatistics.Stage.BACKUP));
+        assertEquals(Files.size(xmlFile), statistics.getBytes(StageStatistics.Stage.SAVE));
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+        assertEquals(2, events.size());
+        assertEquals("FIXED", events.get(0).getString("status"));
+        assertTrue(events.get(0).getInt("duplicates") > 0);
+        assertEquals("CLEAN", events.get(1).getString("status"));
+    }
+}
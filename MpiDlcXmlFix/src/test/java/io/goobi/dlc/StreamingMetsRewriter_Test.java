@@ -0,0 +1,31 @@
+package io.goobi.dlc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.jdom2.input.SAXBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StreamingMetsRewriter_Test {
+
+    @Test
+    void testStreamingMetsRewriter(@TempDir Path tempDir) throws Exception {
+        List<File> domFiles = TestFixtures.copyBackupFixtures(tempDir.resolve("dom"));
+        List<File> streamFiles = TestFixtures.copyBackupFixtures(tempDir.resolve("stream"));
+
+        List<String> domFolders = new FixRunner(new FixForXmlFiles(), 1).run(domFiles);
+        FixForXmlFiles streamFixer = new FixForXmlFiles(FixOptions.parse(new String[] { "--engine", "stream", tempDir.toString() }));
+        List<String> streamFolders = new FixRunner(streamFixer, 1).run(streamFiles);
+        assertEquals(domFolders, streamFolders);
+
+        // Same content as the DOM engine, only the formatting differs
+        SAXBuilder saxBuilder = FixForXmlFiles.createSaxBuilder();
+        for (int i = 0; i < domFiles.size(); i++) {
+            TestFixtures.assertSameElements(saxBuilder.build(domFiles.get(i)).getRootElement(), saxBuilder.build(streamFiles.get(i)).getRootElement());
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package io.goobi.dlc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jdom2.Element;
+
+// Fixtures shared by the tests that fix copies of the test resources
+class TestFixtures {
+    // Number of test resources with duplicate hrefs, each has a meta.xml.unfixed
+    static final int FILES_WITH_DUPLICATES = 11;
+
+    // Copies the committed meta.xml.unfixed files of the test resources as meta.xml into the directory
+    static List<File> copyBackupFixtures(Path directory) throws IOException {
+        List<File> files = new ArrayList<>();
+        File[] processDirectories = new File("src/test/resources").listFiles();
+        Arrays.sort(processDirectories);
+        for (File processDirectory : processDirectories) {
+            File unfixed = new File(processDirectory, "meta.xml.unfixed");
+            if (unfixed.isFile()) {
+                Path xmlFile = directory.resolve(processDirectory.getName()).resolve("meta.xml");
+                Files.createDirectories(xmlFile.getParent());
+                Files.copy(unfixed.toPath(), xmlFile);
+                files.add(xmlFile.toFile());
+            }
+        }
+        return files;
+    }
+
+    // Compares two documents element by element, the formatting is ignored
+    static void assertSameElements(Element expected, Element actual) {
+        assertEquals(expected.getQualifiedName(), actual.getQualifiedName());
+        assertEquals(expected.getNamespaceURI(), actual.getNamespaceURI());
+        assertEquals(expected.getAttributes().toString(), actual.getAttributes().toString());
+        assertEquals(expected.getTextNormalize(), actual.getTextNormalize());
+        assertEquals(expected.getChildren().size(), actual.getChildren().size(), expected.getAttributeValue("ID"));
+        for (int i = 0; i < expected.getChildren().size(); i++) {
+            assertSameElements(expected.getChildren().get(i), actual.getChildren().get(i));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package io.goobi.dlc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jdom2.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UndoJournal_Test {
+
+    @Test
+    void testUndoJournal(@TempDir Path tempDir) throws Exception {
+        List<File> files = TestFixtures.copyBackupFixtures(tempDir.resolve("processes"));
+        List<Document> originals = new ArrayList<>();
+        long originalBytes = 0;
+        for (File file : files) {
+            originals.add(FixForXmlFiles.createSaxBuilder().build(file));
+            originalBytes += file.length();
+        }
+
+        Path journalFile = tempDir.resolve("undo.tsv");
+        FixForXmlFiles fixer = new FixForXmlFiles();
+        try (UndoJournal journal = UndoJournal.open(journalFile)) {
+            fixer.setUndoJournal(journal);
+            assertEquals(TestFixtures.FILES_WITH_DUPLICATES, new FixRunner(fixer, 4).run(files).size());
+        }
+
+        // No backups, the journal is a small fraction of the originals
+        for (File file : files) {
+            assertEquals(1, file.getParentFile().list().length);
+        }
+        assertTrue(Files.size(journalFile) * 10 < originalBytes);
+
+        List<UndoJournal.Changes> changes = UndoJournal.read(journalFile);
+        assertEquals(TestFixtures.FILES_WITH_DUPLICATES, changes.size());
+        UndoFix undo = new UndoFix();
+        undo.undoAll(changes);
+        for (int i = 0; i < files.size(); i++) {
+            TestFixtures.assertSameElements(originals.get(i).getRootElement(),
+                    FixForXmlFiles.createSaxBuilder().build(files.get(i)).getRootElement());
+        }
+
+        // Undone files no longer match the journal and are left alone
+        assertFalse(undo.undo(changes.get(0)));
+    }
+}
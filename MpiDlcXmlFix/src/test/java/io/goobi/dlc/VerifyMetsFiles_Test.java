@@ -0,0 +1,67 @@
+package io.goobi.dlc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class VerifyMetsFiles_Test {
+
+    @Test
+    void testVerifyMetsFiles(@TempDir Path tempDir) throws IOException {
+        Path metadata = tempDir.resolve("metadata");
+        List<File> files = TestFixtures.copyBackupFixtures(metadata);
+        VerifyMetsFiles before = new VerifyMetsFiles();
+        before.verifyAll(metadata.toFile());
+        assertEquals(files.size(), before.getVerifiedFiles());
+        assertEquals(57, before.getProblemCount(VerifyMetsFiles.Kind.DUPLICATE_HREF));
+        assertEquals(TestFixtures.FILES_WITH_DUPLICATES, before.getProcessIDs().size());
+
+        // A fixed repository is consistent
+        new FixRunner(new FixForXmlFiles(), 4).run(files);
+        VerifyMetsFiles after = new VerifyMetsFiles();
+        after.verifyAll(metadata.toFile());
+        assertEquals(files.size(), after.getVerifiedFiles());
+        assertTrue(after.getProcessIDs().isEmpty());
+
+        // References may point forward, only the missing targets are reported
+        String mets = "<mets:mets xmlns:mets=\"http://www.loc.gov/METS/\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">\n"
+                + "<mets:structMap TYPE=\"LOGICAL\"><mets:div ID=\"LOG_1\"/></mets:structMap>\n"
+                + "<mets:fileSec><mets:fileGrp>\n"
+                + "<mets:file ID=\"FILE_1\"><mets:FLocat xlink:href=\"1.tif\"/></mets:file>\n"
+                + "<mets:file ID=\"FILE_2\"><mets:FLocat xlink:href=\"1.tif\"/></mets:file>\n"
+                + "</mets:fileGrp></mets:fileSec>\n"
+                + "<mets:structMap TYPE=\"PHYSICAL\"><mets:div ID=\"PHYS_0\">\n"
+                + "<mets:div ID=\"PHYS_1\" ORDER=\"1\"><mets:fptr FILEID=\"FILE_1\"/></mets:div>\n"
+                + "<mets:div ID=\"PHYS_3\" ORDER=\"3\"><mets:fptr FILEID=\"FILE_3\"/></mets:div>\n"
+                + "<mets:div ID=\"PHYS_4\" ORDER=\"4\"><mets:fptr FILEID=\"FILE_2\"/></mets:div>\n"
+                + "</mets:div></mets:structMap>\n"
+                + "<mets:structLink>\n"
+                + "<mets:smLink xlink:from=\"LOG_1\" xlink:to=\"PHYS_1\"/>\n"
+                + "<mets:smLink xlink:from=\"LOG_2\" xlink:to=\"PHYS_2\"/>\n"
+                + "</mets:structLink></mets:mets>";
+        Path broken = tempDir.resolve("broken.xml");
+        Files.write(broken, mets.getBytes(StandardCharsets.UTF_8));
+        List<VerifyMetsFiles.Problem> problems = new VerifyMetsFiles().verify(broken.toFile());
+        assertEquals(5, problems.size());
+        assertEquals(VerifyMetsFiles.Kind.DUPLICATE_HREF, problems.get(0).getKind());
+        assertEquals(5, problems.get(0).getLine());
+        assertEquals(VerifyMetsFiles.Kind.ORDER_GAP, problems.get(1).getKind());
+        assertEquals(VerifyMetsFiles.Kind.DANGLING_FPTR, problems.get(2).getKind());
+        assertEquals(9, problems.get(2).getLine());
+        assertEquals(VerifyMetsFiles.Kind.DANGLING_SMLINK_FROM, problems.get(3).getKind());
+        assertEquals(VerifyMetsFiles.Kind.DANGLING_SMLINK_TO, problems.get(4).getKind());
+
+        Files.write(broken, "<mets:mets>".getBytes(StandardCharsets.UTF_8));
+        problems = new VerifyMetsFiles().verify(broken.toFile());
+        assertEquals(VerifyMetsFiles.Kind.UNREADABLE, problems.get(0).getKind());
+    }
+}